@@ -0,0 +1,120 @@
+package com.patientping;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Future;
+
+// Command line batch mode: load the inputs once, run every requested report
+// concurrently against them and stream the results out in order.
+//
+//   --input <csv>        a csv of books to load, may be repeated (defaults to the bundled books.csv)
+//   --report <spec>      a report to run, may be repeated, see ReportSpec for the syntax
+//   --reports <file>     a file of report specs, one per line, # starts a comment
+//   --format <format>    json, csv or binary (defaults to json)
+//   --output <file>      where to write the results (defaults to stdout)
+//   --threads <n>        how many reports to run at once (defaults to the number of processors)
+public class BatchReport {
+    public static final String USAGE =
+        "usage: [--input <csv>]... [--report <spec>]... [--reports <file>] "
+        + "[--format json|csv|binary] [--output <file>] [--threads <n>]";
+
+    private final List<String> inputs = new ArrayList<>();
+    private final List<ReportSpec> specs = new ArrayList<>();
+    private String format = "json";
+    private String output;
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    public static void run(String[] args, OutputStream stdout) throws IOException {
+        BatchReport batch = new BatchReport();
+        batch.parseArgs(args);
+        batch.run(stdout);
+    }
+
+    private void parseArgs(String[] args) throws IOException {
+        for (int i = 0; i < args.length; ++i) {
+            String option = args[i];
+            if (i + 1 >= args.length) {
+                throw new IllegalArgumentException("Missing value for " + option + "\n" + USAGE);
+            }
+            String value = args[++i];
+
+            switch (option) {
+                case "--input":
+                    inputs.add(value);
+                    break;
+                case "--report":
+                    specs.add(ReportSpec.parse(value));
+                    break;
+                case "--reports":
+                    for (String line : Files.readAllLines(Paths.get(value), StandardCharsets.UTF_8)) {
+                        line = line.trim();
+                        if (!line.isEmpty() && !line.startsWith("#")) {
+                            specs.add(ReportSpec.parse(line));
+                        }
+                    }
+                    break;
+                case "--format":
+                    // checked now, before any input is loaded or the output truncated
+                    if (!ReportWriter.FORMATS.contains(value)) {
+                        throw new IllegalArgumentException("Unknown report format: " + value + "\n" + USAGE);
+                    }
+                    format = value;
+                    break;
+                case "--output":
+                    output = value;
+                    break;
+                case "--threads":
+                    threads = Integer.parseInt(value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option " + option + "\n" + USAGE);
+            }
+        }
+
+        if (specs.isEmpty()) {
+            throw new IllegalArgumentException("No reports requested\n" + USAGE);
+        }
+    }
+
+    private void run(OutputStream stdout) throws IOException {
+        BookStats stats = new BookStats();
+        if (inputs.isEmpty()) {
+            stats.load("/books.csv");
+        }
+        else {
+            // CSVParser keeps the header in static state, so the files are read one after another
+            List<Book> books = new ArrayList<>();
+            for (String input : inputs) {
+                try (InputStream in = Files.newInputStream(Paths.get(input))) {
+                    books.addAll(BookStats.readCsv(in));
+                }
+            }
+            stats.loadBooks(books);
+        }
+
+        OutputStream out = output == null ? stdout : new BufferedOutputStream(Files.newOutputStream(Paths.get(output)));
+        ReportWriter writer = ReportWriter.create(format, out);
+        try (ReportRunner runner = new ReportRunner(stats, threads)) {
+            // write each result as soon as it and everything before it is done
+            for (Future<ReportResult> result : runner.submit(specs)) {
+                writer.write(ReportRunner.await(result));
+            }
+        }
+        finally {
+            // leave stdout open for whoever else wants it
+            if (output == null) {
+                writer.flush();
+            }
+            else {
+                writer.close();
+            }
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.patientping;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// Reads and writes a book in a compact binary form, shared by the write
+// ahead log and catalog snapshots.
+class BookCodec {
+    private BookCodec() {
+    }
+
+    static void write(DataOutput out, Book book) throws IOException {
+        out.writeInt(book.getId());
+        writeNullableString(out, book.getTitle());
+        writeNullableString(out, book.getAuthors());
+        out.writeFloat(book.getAverageRating());
+        writeNullableString(out, book.getIsbn());
+        writeNullableString(out, book.getIsbn13());
+        writeNullableString(out, book.getLanguage());
+        out.writeInt(book.getNumPages());
+        out.writeInt(book.getRatingCount());
+        out.writeInt(book.getTextReviewsCount());
+    }
+
+    static Book read(DataInput in) throws IOException {
+        return Book.builder()
+            .id(in.readInt())
+            .title(readNullableString(in))
+            .authors(readNullableString(in))
+            .averageRating(in.readFloat())
+            .isbn(readNullableString(in))
+            .isbn13(readNullableString(in))
+            .language(readNullableString(in))
+            .numPages(in.readInt())
+            .ratingCount(in.readInt())
+            .textReviewsCount(in.readInt())
+            .build();
+    }
+
+    private static void writeNullableString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
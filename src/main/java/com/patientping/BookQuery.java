@@ -0,0 +1,180 @@
+package com.patientping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// A conjunction of filters over the books, for example
+//
+//   new BookQuery().languageIn("eng", "en-US").ratingCountBetween(25, Integer.MAX_VALUE)
+//
+// matches english books with at least 25 ratings. The query only says what
+// to match; the QueryPlanner decides how to find the matching books.
+public class BookQuery {
+    // One filter of the query. Each knows how to test a book, roughly how many
+    // books it matches, and how expensive a single test is relative to the
+    // others, which is what the planner orders filters by.
+    public abstract static class Filter {
+        public abstract boolean matches(Book book);
+
+        public abstract double estimateRows(ColumnStatistics statistics);
+
+        // the relative cost of calling matches once
+        public abstract double cost();
+
+        public abstract String describe();
+    }
+
+    public static class LanguageIn extends Filter {
+        private final List<String> languages;
+
+        LanguageIn(List<String> languages) {
+            this.languages = Collections.unmodifiableList(new ArrayList<>(languages));
+        }
+
+        public List<String> getLanguages() {
+            return languages;
+        }
+
+        @Override
+        public boolean matches(Book book) {
+            return languages.contains(book.getLanguage());
+        }
+
+        @Override
+        public double estimateRows(ColumnStatistics statistics) {
+            return statistics.estimateLanguageIn(languages);
+        }
+
+        @Override
+        public double cost() {
+            return 1.0;
+        }
+
+        @Override
+        public String describe() {
+            return "language in " + languages;
+        }
+    }
+
+    public static class AuthorIs extends Filter {
+        private final String author;
+
+        AuthorIs(String author) {
+            this.author = author;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        // splits the authors the same way indexByAuthor does
+        @Override
+        public boolean matches(Book book) {
+            return book.getAuthors() != null && Arrays.asList(book.getAuthors().split("-")).contains(author);
+        }
+
+        @Override
+        public double estimateRows(ColumnStatistics statistics) {
+            return statistics.estimateAuthor(author);
+        }
+
+        // splitting the authors column allocates, so this is the most expensive test
+        @Override
+        public double cost() {
+            return 4.0;
+        }
+
+        @Override
+        public String describe() {
+            return "author = \"" + author + "\"";
+        }
+    }
+
+    public static class RatingCountBetween extends Filter {
+        private final int min;
+        private final int max;
+
+        RatingCountBetween(int min, int max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public boolean matches(Book book) {
+            return book.getRatingCount() >= min && book.getRatingCount() <= max;
+        }
+
+        @Override
+        public double estimateRows(ColumnStatistics statistics) {
+            return statistics.estimateRatingCountBetween(min, max);
+        }
+
+        @Override
+        public double cost() {
+            return 0.5;
+        }
+
+        @Override
+        public String describe() {
+            return "ratingCount between " + min + " and " + max;
+        }
+    }
+
+    public static class NumPagesBetween extends Filter {
+        private final int min;
+        private final int max;
+
+        NumPagesBetween(int min, int max) {
+            this.min = min;
+            this.max = max;
+        }
+
+        @Override
+        public boolean matches(Book book) {
+            return book.getNumPages() >= min && book.getNumPages() <= max;
+        }
+
+        @Override
+        public double estimateRows(ColumnStatistics statistics) {
+            return statistics.estimateNumPagesBetween(min, max);
+        }
+
+        @Override
+        public double cost() {
+            return 0.5;
+        }
+
+        @Override
+        public String describe() {
+            return "numPages between " + min + " and " + max;
+        }
+    }
+
+    private final List<Filter> filters = new ArrayList<>();
+
+    public BookQuery languageIn(String... languages) {
+        filters.add(new LanguageIn(Arrays.asList(languages)));
+        return this;
+    }
+
+    public BookQuery authorIs(String author) {
+        filters.add(new AuthorIs(author));
+        return this;
+    }
+
+    public BookQuery ratingCountBetween(int min, int max) {
+        filters.add(new RatingCountBetween(min, max));
+        return this;
+    }
+
+    public BookQuery numPagesBetween(int min, int max) {
+        filters.add(new NumPagesBetween(min, max));
+        return this;
+    }
+
+    public List<Filter> getFilters() {
+        return Collections.unmodifiableList(filters);
+    }
+}
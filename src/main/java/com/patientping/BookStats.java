@@ -6,43 +6,121 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.AbstractMap;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Function;
+import lombok.AccessLevel;
 import lombok.Getter;
 
+// Not safe for updates to run alongside reads: queries may run concurrently
+// with each other, but loadBooks, upsert, delete and foldUpdates must not
+// overlap any other call. CatalogStore does this with a read/write lock, see
+// CatalogStore.read().
 @Getter
 public class BookStats {
+    private static final int DEFAULT_CACHE_SIZE = 256;
+    // what the query cache hands back for a query that isn't cached, see cached()
+    private static final Object NOT_CACHED = new Object();
+    // a fold is due once the delta holds this many books, or a sixteenth of
+    // the catalog if that's more, so a fold's cost is spread over many updates
+    private static final int MIN_FOLD_THRESHOLD = 1024;
+
+    // best rated first, more ratings break ties, then the lower id so the order is stable
+    public static final Comparator<Book> BY_RATING_DESCENDING = Comparator
+        .comparingDouble((Book b) -> b.getAverageRating()).reversed()
+        .thenComparing(Comparator.comparingInt((Book b) -> b.getRatingCount()).reversed())
+        .thenComparingInt(b -> b.getId());
+
     private List<Book> books;
+    // where each book id lives in books, so updates don't have to scan for it
+    @Getter(AccessLevel.NONE)
+    private Map<Integer, Integer> rowsById;
+
+    // The search index and coauthor graph are built from the books as they were
+    // at the last fold. Updates since then go into a small delta, the books
+    // upserted and the ids whose indexed version is out of date, which search
+    // consults, so an update never rebuilds them. foldUpdates() rebuilds them
+    // from the current books and empties the delta.
+    private SearchIndex searchIndex;
+    private CoAuthorGraph coAuthorGraph;
+    @Getter(AccessLevel.NONE)
+    private Map<Integer, Book> updatedBooks = new LinkedHashMap<>();
+    @Getter(AccessLevel.NONE)
+    private Set<Integer> staleIds = new HashSet<>();
+    // folds started but not yet finished, see startFold()
+    @Getter(AccessLevel.NONE)
+    private final List<Fold> folds = new ArrayList<>();
+    // whether an update that makes a fold due runs it there and then. Off by
+    // default since the fold rebuilds everything on the updating thread, see
+    // isFoldDue() for deciding when to fold yourself, as CatalogStore does.
+    private boolean autoFold;
+    // the statistics the query planner estimates with, kept up to date by every update
+    private ColumnStatistics columnStatistics;
+
+    // bumped every time data is loaded or updated so cached query results from older data are never reused
+    private long dataVersion;
+    private final QueryCache queryCache = new QueryCache(DEFAULT_CACHE_SIZE);
 
     public void loadCsv(InputStream in) throws IOException {
-        books = new ArrayList<>();
+        loadBooks(readCsv(in));
+    }
+
+    // parse every well formed row of the csv into a book, rows with bad
+    // numbers are reported to stderr and skipped
+    public static List<Book> readCsv(InputStream in) throws IOException {
+        List<Book> books = new ArrayList<>();
 
         BufferedReader reader = new BufferedReader(new InputStreamReader(in));
 
         // read the header line to created the index of column names
         CSVParser.readHeader(reader.readLine());
 
-        Map<String, String> record = CSVParser.parseLine(reader.readLine());
-        while (record != null) {
-            if (record.size() > 0) {
+        int idColumn = CSVParser.columnIndex("bookID");
+        int titleColumn = CSVParser.columnIndex("title");
+        int authorsColumn = CSVParser.columnIndex("authors");
+        int averageRatingColumn = CSVParser.columnIndex("average_rating");
+        int isbnColumn = CSVParser.columnIndex("isbn");
+        int isbn13Column = CSVParser.columnIndex("isbn13");
+        int languageColumn = CSVParser.columnIndex("language_code");
+        int numPagesColumn = CSVParser.columnIndex("# num_pages");
+        int ratingCountColumn = CSVParser.columnIndex("ratings_count");
+        int textReviewsCountColumn = CSVParser.columnIndex("text_reviews_count");
+
+        // where each column of the current line starts and ends, reused for every line
+        int[] columnStarts = new int[CSVParser.columnCount()];
+        int[] columnEnds = new int[CSVParser.columnCount()];
+
+        String line = reader.readLine();
+        while (line != null) {
+            // like CSVParser.parseLine, skip rows that don't have a value for every column
+            if (CSVParser.findColumns(line, columnStarts, columnEnds) == columnStarts.length) {
               try {
-                  // using the builder pattern, build up a book from the parsed record
-                  // returned from the CSVParser
+                  // using the builder pattern, build up a book from the column
+                  // positions found by the CSVParser. Numbers are parsed straight
+                  // out of the line, only the text columns are copied out.
                   Book b = Book.builder()
-                      .id(Integer.parseInt(record.get("bookID")))
-                      .title(record.get("title"))
-                      .authors(record.get("authors"))
-                      .averageRating(Float.parseFloat(record.get("average_rating")))
-                      .isbn(record.get("isbn"))
-                      .isbn13(record.get("isbn13"))
-                      .language(record.get("language_code"))
-                      .numPages(Integer.parseInt(record.get("# num_pages")))
-                      .ratingCount(Integer.parseInt(record.get("ratings_count")))
-                      .textReviewsCount(Integer.parseInt(record.get("text_reviews_count")))
+                      .id(parseIntColumn(line, idColumn, columnStarts, columnEnds))
+                      .title(stringColumn(line, titleColumn, columnStarts, columnEnds))
+                      .authors(stringColumn(line, authorsColumn, columnStarts, columnEnds))
+                      .averageRating(parseFloatColumn(line, averageRatingColumn, columnStarts, columnEnds))
+                      .isbn(stringColumn(line, isbnColumn, columnStarts, columnEnds))
+                      .isbn13(stringColumn(line, isbn13Column, columnStarts, columnEnds))
+                      .language(stringColumn(line, languageColumn, columnStarts, columnEnds))
+                      .numPages(parseIntColumn(line, numPagesColumn, columnStarts, columnEnds))
+                      .ratingCount(parseIntColumn(line, ratingCountColumn, columnStarts, columnEnds))
+                      .textReviewsCount(parseIntColumn(line, textReviewsCountColumn, columnStarts, columnEnds))
                       .build();
 
                   books.add(b);
@@ -52,34 +130,443 @@ public class BookStats {
               }
             }
 
-            record = CSVParser.parseLine(reader.readLine());
+            line = reader.readLine();
+        }
+
+        return books;
+    }
+
+    private static String stringColumn(String line, int column, int[] columnStarts, int[] columnEnds) {
+        return column < 0 ? null : line.substring(columnStarts[column], columnEnds[column]);
+    }
+
+    private static int parseIntColumn(String line, int column, int[] columnStarts, int[] columnEnds) {
+        if (column < 0) {
+            throw new NumberFormatException("null");
+        }
+        return NumberParser.parseInt(line, columnStarts[column], columnEnds[column]);
+    }
+
+    private static float parseFloatColumn(String line, int column, int[] columnStarts, int[] columnEnds) {
+        if (column < 0) {
+            throw new NumberFormatException("null");
+        }
+        return NumberParser.parseFloat(line, columnStarts[column], columnEnds[column]);
+    }
+
+    // replace the loaded books and rebuild everything derived from them
+    public void loadBooks(List<Book> books) {
+        this.books = new ArrayList<>(books);
+
+        rowsById = new HashMap<>();
+        for (int row = 0; row < this.books.size(); ++row) {
+            rowsById.put(this.books.get(row).getId(), row);
+        }
+
+        foldUpdates();
+        dataChanged();
+    }
+
+    // rebuild the search index, coauthor graph and column statistics from the
+    // current books and empty the delta. This is the only step whose cost grows
+    // with the catalog. CatalogStore does it in the background when it
+    // compacts, using startFold() and finishFold() so updates can carry on.
+    public void foldUpdates() {
+        Fold fold = startFold();
+        fold.build();
+        finishFold(fold);
+    }
+
+    // A fold in progress: a copy of the books taken by startFold(), the
+    // structures built from it by build(), and the ids updated since the copy,
+    // which finishFold() keeps in the delta.
+    static class Fold {
+        private final List<Book> base;
+        private final Set<Integer> changed = new HashSet<>();
+
+        private SearchIndex searchIndex;
+        private CoAuthorGraph coAuthorGraph;
+        private ColumnStatistics columnStatistics;
+
+        private Fold(List<Book> base) {
+            this.base = base;
+        }
+
+        // the books as they were when the fold started
+        List<Book> getBooks() {
+            return base;
+        }
+
+        // the expensive part, it only reads the copy so it needs no locking
+        void build() {
+            // index the titles and authors of everything we loaded for search
+            searchIndex = SearchIndex.build(base);
+            // and record who wrote with whom
+            coAuthorGraph = CoAuthorGraph.build(base);
+            // and collect the column statistics for planning queries
+            columnStatistics = ColumnStatistics.collect(base);
+        }
+
+        // the folded version of each book updated since the fold started
+        private Map<Integer, Book> changedBaseBooks() {
+            Map<Integer, Book> before = new HashMap<>();
+            if (!changed.isEmpty()) {
+                for (Book b : base) {
+                    if (changed.contains(b.getId())) {
+                        before.put(b.getId(), b);
+                    }
+                }
+            }
+            return before;
+        }
+    }
+
+    // copy the books to fold. The index keeps its own copy, since updates move
+    // books around in books. Like an update this mustn't overlap other calls.
+    Fold startFold() {
+        Fold fold = new Fold(Collections.unmodifiableList(new ArrayList<>(books)));
+        folds.add(fold);
+        return fold;
+    }
+
+    // swap in the structures built by the fold. Anything updated since it
+    // started is in the new delta, and its column statistics are corrected.
+    void finishFold(Fold fold) {
+        folds.remove(fold);
+
+        Map<Integer, Book> updated = new LinkedHashMap<>();
+        ColumnStatistics statistics = fold.columnStatistics;
+        Map<Integer, Book> baseBooks = fold.changedBaseBooks();
+        for (int id : fold.changed) {
+            Book before = baseBooks.get(id);
+            Book now = findById(id);
+            if (before != null) {
+                statistics.remove(before);
+            }
+            if (now != null) {
+                statistics.add(now);
+                updated.put(id, now);
+            }
+        }
+
+        searchIndex = fold.searchIndex;
+        coAuthorGraph = fold.coAuthorGraph;
+        columnStatistics = statistics;
+        updatedBooks = updated;
+        staleIds = new HashSet<>(fold.changed);
+    }
+
+    // give up on a fold that failed, the current structures and delta stay as they are
+    void abandonFold(Fold fold) {
+        folds.remove(fold);
+    }
+
+    // how many books have been upserted or deleted since the last fold
+    public int getPendingUpdateCount() {
+        return staleIds.size();
+    }
+
+    // whether the delta has grown enough to be worth folding, and no fold is already under way
+    public boolean isFoldDue() {
+        return folds.isEmpty() && books != null
+            && staleIds.size() >= Math.max(MIN_FOLD_THRESHOLD, books.size() / 16);
+    }
+
+    public void setAutoFold(boolean autoFold) {
+        this.autoFold = autoFold;
+    }
+
+    // insert the book, or replace the loaded book with the same id. Like delete
+    // this costs the same however many books are loaded: the book goes into the
+    // delta and the column statistics are adjusted, nothing is rebuilt.
+    public void upsert(Book book) {
+        if (books == null) {
+            loadBooks(new ArrayList<>());
+        }
+
+        Integer row = rowsById.get(book.getId());
+        if (row != null) {
+            columnStatistics.remove(books.set(row, book));
+        }
+        else {
+            rowsById.put(book.getId(), books.size());
+            books.add(book);
+        }
+        columnStatistics.add(book);
+
+        updatedBooks.put(book.getId(), book);
+        updated(book.getId());
+    }
+
+    // remove the book with this id, returning whether it was loaded. The last
+    // book is moved into the removed book's row so nothing has to shift down.
+    public boolean delete(int id) {
+        Integer row = rowsById == null ? null : rowsById.remove(id);
+        if (row == null) {
+            return false;
+        }
+
+        Book removed = books.get(row);
+        Book last = books.remove(books.size() - 1);
+        if (row < books.size()) {
+            books.set(row, last);
+            rowsById.put(last.getId(), row);
+        }
+        columnStatistics.remove(removed);
+
+        updatedBooks.remove(id);
+        updated(id);
+        return true;
+    }
+
+    private void updated(int id) {
+        staleIds.add(id);
+        for (Fold fold : folds) {
+            fold.changed.add(id);
         }
+        if (autoFold && isFoldDue()) {
+            foldUpdates();
+        }
+        dataChanged();
+    }
+
+    public Book findById(int id) {
+        Integer row = rowsById == null ? null : rowsById.get(id);
+        return row == null ? null : books.get(row);
+    }
+
+    // find books by title and author tokens or prefixes, best matches first
+    public List<Book> search(String query, int limit) {
+        return search(query, null, limit);
+    }
+
+    // the index is searched as it was at the last fold, with the books
+    // changed since skipped and the delta matched on top
+    public List<Book> search(String query, Collection<String> languages, int limit) {
+        return searchIndex.search(query, languages, limit, staleIds, updatedBooks.values());
+    }
+
+    // persist the search index so it can be loaded next to the same csv instead
+    // of rebuilt. Pending updates are folded in first so the index matches the books.
+    public void saveSearchIndex(OutputStream out) throws IOException {
+        if (!staleIds.isEmpty()) {
+            foldUpdates();
+        }
+        searchIndex.save(out);
+    }
+
+    public void loadSearchIndex(InputStream in) throws IOException {
+        if (!staleIds.isEmpty()) {
+            foldUpdates();
+        }
+        searchIndex = SearchIndex.load(in, Collections.unmodifiableList(new ArrayList<>(books)));
+    }
+
+    // an index of the current books. Searching through BookStats doesn't need
+    // this, it consults the delta instead, but with updates pending a caller
+    // wanting the index itself gets one built for the current books, which is
+    // cached until the next update.
+    public SearchIndex getSearchIndex() {
+        if (staleIds.isEmpty()) {
+            return searchIndex;
+        }
+        return queryCache.get("searchIndex", dataVersion,
+            () -> SearchIndex.build(Collections.unmodifiableList(new ArrayList<>(books))));
+    }
+
+    // likewise the graph of the current books, only built when updates are pending
+    public CoAuthorGraph getCoAuthorGraph() {
+        if (staleIds.isEmpty()) {
+            return coAuthorGraph;
+        }
+        return queryCache.get("coAuthorGraph", dataVersion, () -> CoAuthorGraph.build(books));
+    }
+
+    // work out how the query would be answered, without running it
+    public QueryPlan plan(BookQuery query) {
+        return new QueryPlanner(this).plan(query);
+    }
+
+    // the books matching every filter of the query, found the cheapest way the
+    // planner knows of given what's cached
+    public List<Book> query(BookQuery query) {
+        return query(query, QueryContext.unbounded()).getValue();
+    }
+
+    // the same under a context, which bounds building the plan's access path
+    // as well as filtering the rows it hands back
+    public QueryResult<List<Book>> query(BookQuery query, QueryContext context) {
+        return new QueryPlanner(this).plan(query).execute(context);
+    }
+
+    // run the query and describe the plan it ran with, estimated and actual row counts included
+    public String explain(BookQuery query) {
+        return explain(query, QueryContext.unbounded());
+    }
+
+    public String explain(BookQuery query, QueryContext context) {
+        QueryPlan plan = new QueryPlanner(this).plan(query);
+        plan.execute(context);
+        return plan.explain();
+    }
+
+    // what the planner checks to know whether an access path still has to be built
+    boolean isAuthorIndexCached() {
+        return queryCache.contains("indexByAuthor", dataVersion);
     }
 
+    boolean isLanguageFilterCached(Collection<String> languages) {
+        return queryCache.contains(languagesKey(languages), dataVersion);
+    }
+
+    // cached results were computed from the old data, so they all have to go
+    private void dataChanged() {
+        dataVersion++;
+        queryCache.invalidateAll();
+    }
+
+    // the no argument queries run against all the loaded books, so their results
+    // are cached until the next load. Callers share the cached result, which is
+    // why it's returned unmodifiable.
     public List<Book> filterToEnglishBooks() {
-      return filterToEnglishBooks(books);
+      return queryCache.get("filterToEnglishBooks", dataVersion,
+          () -> Collections.unmodifiableList(filterToEnglishBooks(books)));
     }
 
     // return a sub list of books that match the 3 english language codes
     public List<Book> filterToEnglishBooks(List<Book> books) {
+        return scanEnglishBooks(books, QueryContext.unbounded()).getValue();
+    }
+
+    // the scanning queries also take a QueryContext, which can put a deadline
+    // on the scan or cancel it, and report how many rows were scanned. The
+    // versions without a context are the same scans, unbounded.
+    public QueryResult<List<Book>> filterToEnglishBooks(List<Book> books, QueryContext context) {
+        return scanEnglishBooks(books, context);
+    }
+
+    // the cached whole catalog queries take a context too, see cached()
+    public QueryResult<List<Book>> filterToEnglishBooks(QueryContext context) {
+        return cached("filterToEnglishBooks", context,
+            c -> scanEnglishBooks(books, c).map(Collections::unmodifiableList));
+    }
+
+    // a cached result comes back straight away, as a complete result that
+    // scanned no rows. Otherwise the scan runs under the context, and its
+    // result is only cached if it's complete, so a partial result never
+    // stands in for the whole catalog. Unlike the queries without a context,
+    // callers missing at the same time each run their own scan, since each
+    // has its own deadline.
+    @SuppressWarnings("unchecked")
+    private <T> QueryResult<T> cached(String key, QueryContext context,
+                                      Function<QueryContext, QueryResult<T>> scan) {
+        long version = dataVersion;
+        Object cached = queryCache.getIfCached(key, version, NOT_CACHED);
+        if (cached != NOT_CACHED) {
+            return new QueryResult<>((T) cached, false, 0, 0, 0);
+        }
+
+        QueryResult<T> result = scan.apply(context);
+        if (!result.isPartial()) {
+            queryCache.put(key, version, result.getValue());
+        }
+        return result;
+    }
+
+    private QueryResult<List<Book>> scanEnglishBooks(List<Book> books, QueryContext context) {
         List<String> languages = Arrays.asList("eng", "en-US", "en-GB");
         List<Book> englishBooks = new ArrayList<>();
 
+        QueryContext.Scan scan = context.startScan(books.size());
         for (Book b : books) {
+            if (!scan.proceed()) {
+                break;
+            }
             if (languages.contains(b.getLanguage())) {
                 englishBooks.add(b);
             }
         }
-        return englishBooks;
+        return scan.finish(englishBooks);
+    }
+
+    // the books in any of the given languages, cached per set of languages
+    public List<Book> filterToLanguages(Collection<String> languages) {
+        return queryCache.get(languagesKey(languages), dataVersion,
+            () -> Collections.unmodifiableList(filterToLanguages(books, languages)));
+    }
+
+    private static String languagesKey(Collection<String> languages) {
+        return "filterToLanguages:" + sorted(languages);
+    }
+
+    // the same languages in any order share one cached result
+    private static List<String> sorted(Collection<String> languages) {
+        List<String> key = new ArrayList<>(languages);
+        Collections.sort(key);
+        return key;
+    }
+
+    public QueryResult<List<Book>> filterToLanguages(Collection<String> languages, QueryContext context) {
+        return cached(languagesKey(languages), context,
+            c -> scanLanguages(books, languages, c).map(Collections::unmodifiableList));
+    }
+
+    public List<Book> filterToLanguages(List<Book> books, Collection<String> languages) {
+        return scanLanguages(books, languages, QueryContext.unbounded()).getValue();
     }
 
+    private QueryResult<List<Book>> scanLanguages(List<Book> books, Collection<String> languages,
+                                                  QueryContext context) {
+        List<Book> matching = new ArrayList<>();
+        QueryContext.Scan scan = context.startScan(books.size());
+        for (Book b : books) {
+            if (!scan.proceed()) {
+                break;
+            }
+            if (languages.contains(b.getLanguage())) {
+                matching.add(b);
+            }
+        }
+        return scan.finish(matching);
+    }
+
+    // every caller shares the cached index, so its lists are unmodifiable too
     public Map<String, List<Book>> indexByAuthor() {
-      return indexByAuthor(books);
+      return queryCache.get("indexByAuthor", dataVersion, () -> unmodifiableIndex(indexByAuthor(books)));
+    }
+
+    // the books in any of the given languages indexed by author, cached per
+    // set of languages like filterToLanguages
+    public Map<String, List<Book>> indexByAuthorInLanguages(Collection<String> languages) {
+        return queryCache.get("indexByAuthor:" + sorted(languages), dataVersion,
+            () -> unmodifiableIndex(indexByAuthor(filterToLanguages(languages))));
+    }
+
+    private static Map<String, List<Book>> unmodifiableIndex(Map<String, List<Book>> index) {
+        index.replaceAll((author, written) -> Collections.unmodifiableList(written));
+        return Collections.unmodifiableMap(index);
     }
 
     public Map<String, List<Book>> indexByAuthor(List<Book> books) {
+        return scanIndexByAuthor(books, QueryContext.unbounded()).getValue();
+    }
+
+    public QueryResult<Map<String, List<Book>>> indexByAuthor(List<Book> books, QueryContext context) {
+        return scanIndexByAuthor(books, context);
+    }
+
+    public QueryResult<Map<String, List<Book>>> indexByAuthor(QueryContext context) {
+        return cached("indexByAuthor", context,
+            c -> scanIndexByAuthor(books, c).map(BookStats::unmodifiableIndex));
+    }
+
+    private QueryResult<Map<String, List<Book>>> scanIndexByAuthor(List<Book> books, QueryContext context) {
         Map<String, List<Book>> booksByAuthor = new HashMap<>();
+        QueryContext.Scan scan = context.startScan(books.size());
         for (Book b : books) {
+            if (!scan.proceed()) {
+                break;
+            }
             // split up the authors with the - delimiter
             String[] authors = b.getAuthors().split("-");
             for (String author : authors) {
@@ -90,15 +577,43 @@ public class BookStats {
                 booksByAuthor.get(author).add(b);
             }
         }
-        return booksByAuthor;
+        return scan.finish(booksByAuthor);
+    }
+
+    // the author of the most english books, cached like the queries it's built from
+    public Map.Entry<String, Integer> findAuthorWithMostEnglishBooks() {
+        return queryCache.get("findAuthorWithMostEnglishBooks", dataVersion, () -> immutable(
+            scanMostBooksByAuthor(scanIndexByAuthor(filterToEnglishBooks(), QueryContext.unbounded()).getValue(),
+                QueryContext.unbounded()).getValue()));
+    }
+
+    public QueryResult<Map.Entry<String, Integer>> findAuthorWithMostEnglishBooks(QueryContext context) {
+        return cached("findAuthorWithMostEnglishBooks", context, c -> filterToEnglishBooks(c)
+            .then(english -> scanIndexByAuthor(english, c))
+            .then(index -> scanMostBooksByAuthor(index, c))
+            .map(BookStats::immutable));
     }
 
     // given an index of books by author, find the author that has written the most books
     // and return an Entry of <Author, Count>
     public Map.Entry<String, Integer> findMostBooksByAuthor(Map<String, List<Book>> booksByAuthor) {
+        return scanMostBooksByAuthor(booksByAuthor, QueryContext.unbounded()).getValue();
+    }
+
+    public QueryResult<Map.Entry<String, Integer>> findMostBooksByAuthor(Map<String, List<Book>> booksByAuthor,
+                                                                         QueryContext context) {
+        return scanMostBooksByAuthor(booksByAuthor, context);
+    }
+
+    private QueryResult<Map.Entry<String, Integer>> scanMostBooksByAuthor(Map<String, List<Book>> booksByAuthor,
+                                                                          QueryContext context) {
         int mostCount = 0;
         String mostAuthor = null;
+        QueryContext.Scan scan = context.startScan(booksByAuthor.size());
         for (Map.Entry<String, List<Book>> entry: booksByAuthor.entrySet()) {
+            if (!scan.proceed()) {
+                break;
+            }
             int count = entry.getValue().size();
 
             if (count > mostCount) {
@@ -108,19 +623,45 @@ public class BookStats {
         }
 
         if (mostAuthor != null) {
-            return new AbstractMap.SimpleEntry<String, Integer>(mostAuthor, mostCount);
+            return scan.finish(new AbstractMap.SimpleEntry<String, Integer>(mostAuthor, mostCount));
         }
         else {
-            return null;
+            return scan.finish(null);
         }
     }
 
+    // the author with the highest average rating across all the loaded books, cached
+    public Map.Entry<String, Double> findAuthorWithHighestAverageRating() {
+        return queryCache.get("findAuthorWithHighestAverageRating", dataVersion, () -> immutable(
+            scanHighestAverageRating(indexByAuthor(), QueryContext.unbounded()).getValue()));
+    }
+
+    public QueryResult<Map.Entry<String, Double>> findAuthorWithHighestAverageRating(QueryContext context) {
+        return cached("findAuthorWithHighestAverageRating", context, c -> indexByAuthor(c)
+            .then(index -> scanHighestAverageRating(index, c))
+            .map(BookStats::immutable));
+    }
+
     // given an index of books by author, find the author that has the highest average rating
     // across all their books and return an entry of <Author, AverageRating>
     public Map.Entry<String, Double> findAuthorWithHighestAverageRating(Map<String, List<Book>> booksByAuthor) {
+        return scanHighestAverageRating(booksByAuthor, QueryContext.unbounded()).getValue();
+    }
+
+    public QueryResult<Map.Entry<String, Double>> findAuthorWithHighestAverageRating(
+            Map<String, List<Book>> booksByAuthor, QueryContext context) {
+        return scanHighestAverageRating(booksByAuthor, context);
+    }
+
+    private QueryResult<Map.Entry<String, Double>> scanHighestAverageRating(Map<String, List<Book>> booksByAuthor,
+                                                                            QueryContext context) {
         double highestAverage = 0.0;
         String bestAuthor = null;
+        QueryContext.Scan scan = context.startScan(booksByAuthor.size());
         for (Map.Entry<String, List<Book>> entry: booksByAuthor.entrySet()) {
+            if (!scan.proceed()) {
+                break;
+            }
             double average = entry.getValue()
                 .stream()
                 .mapToDouble(a -> a.getAverageRating())
@@ -134,21 +675,105 @@ public class BookStats {
         }
 
         if (bestAuthor != null) {
-            return new AbstractMap.SimpleEntry<String, Double>(bestAuthor, highestAverage);
+            return scan.finish(new AbstractMap.SimpleEntry<String, Double>(bestAuthor, highestAverage));
         }
         else {
-            return null;
+            return scan.finish(null);
+        }
+    }
+
+    // cached entries are shared by every caller, so they mustn't be settable
+    private static <K, V> Map.Entry<K, V> immutable(Map.Entry<K, V> entry) {
+        return entry == null ? null : new AbstractMap.SimpleImmutableEntry<>(entry);
+    }
+
+    // the number of books written by each author. Counts from different sets of
+    // books can be summed, so these are what a shard hands back for merging.
+    public Map<String, Integer> countBooksByAuthor() {
+        return queryCache.get("countBooksByAuthor", dataVersion, () -> {
+            Map<String, Integer> counts = new HashMap<>();
+            for (Map.Entry<String, List<Book>> entry : indexByAuthor().entrySet()) {
+                counts.put(entry.getKey(), entry.getValue().size());
+            }
+            return Collections.unmodifiableMap(counts);
+        });
+    }
+
+    // the rating sum and count of each author's books, mergeable like countBooksByAuthor
+    public Map<String, RatingTotal> ratingTotalsByAuthor() {
+        return queryCache.get("ratingTotalsByAuthor", dataVersion, () -> ratingTotals(indexByAuthor()));
+    }
+
+    // likewise for the books in any of the given languages, cached per set of languages
+    public Map<String, RatingTotal> ratingTotalsByAuthorInLanguages(Collection<String> languages) {
+        return queryCache.get("ratingTotalsByAuthor:" + sorted(languages), dataVersion,
+            () -> ratingTotals(indexByAuthorInLanguages(languages)));
+    }
+
+    private static Map<String, RatingTotal> ratingTotals(Map<String, List<Book>> booksByAuthor) {
+        Map<String, RatingTotal> totals = new HashMap<>();
+        for (Map.Entry<String, List<Book>> entry : booksByAuthor.entrySet()) {
+            double sum = 0;
+            for (Book b : entry.getValue()) {
+                sum += b.getAverageRating();
+            }
+            totals.put(entry.getKey(), new RatingTotal(sum, entry.getValue().size()));
         }
+        return Collections.unmodifiableMap(totals);
+    }
+
+    public List<Book> findTopRatedBooks(int k) {
+        return queryCache.get("findTopRatedBooks:" + k, dataVersion,
+            () -> Collections.unmodifiableList(findTopRatedBooks(books, k)));
+    }
+
+    // the k best rated books, using the same 25 rating minimum as findHighestRatedBook.
+    // Keeps a min heap of the best k seen so far instead of sorting every book.
+    public List<Book> findTopRatedBooks(List<Book> books, int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+
+        PriorityQueue<Book> best = new PriorityQueue<>(k + 1, BY_RATING_DESCENDING.reversed());
+        for (Book b : books) {
+            if (b.getRatingCount() < 25) {
+                continue;
+            }
+            best.add(b);
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+
+        List<Book> top = new ArrayList<>(best);
+        top.sort(BY_RATING_DESCENDING);
+        return top;
     }
 
     public Book findHighestRatedBook() {
-      return findHighestRatedBook(books);
+      return queryCache.get("findHighestRatedBook", dataVersion, () -> findHighestRatedBook(books));
+    }
+
+    public QueryResult<Book> findHighestRatedBook(QueryContext context) {
+        return cached("findHighestRatedBook", context, c -> scanHighestRatedBook(books, c));
     }
 
     public Book findHighestRatedBook(List<Book> books) {
+        return scanHighestRatedBook(books, QueryContext.unbounded()).getValue();
+    }
+
+    public QueryResult<Book> findHighestRatedBook(List<Book> books, QueryContext context) {
+        return scanHighestRatedBook(books, context);
+    }
+
+    private QueryResult<Book> scanHighestRatedBook(List<Book> books, QueryContext context) {
         float highestRating = 0f;
         Book highestRatedBook = null;
+        QueryContext.Scan scan = context.startScan(books.size());
         for (Book b : books) {
+            if (!scan.proceed()) {
+                break;
+            }
             if (b.getRatingCount() < 25) {
                 continue;
             }
@@ -161,17 +786,33 @@ public class BookStats {
             }
         }
 
-        return highestRatedBook;
+        return scan.finish(highestRatedBook);
     }
 
     public Book findHighestRatioBook() {
-      return findHighestRatioBook(books);
+      return queryCache.get("findHighestRatioBook", dataVersion, () -> findHighestRatioBook(books));
+    }
+
+    public QueryResult<Book> findHighestRatioBook(QueryContext context) {
+        return cached("findHighestRatioBook", context, c -> scanHighestRatioBook(books, c));
     }
 
     public Book findHighestRatioBook(List<Book> books) {
+        return scanHighestRatioBook(books, QueryContext.unbounded()).getValue();
+    }
+
+    public QueryResult<Book> findHighestRatioBook(List<Book> books, QueryContext context) {
+        return scanHighestRatioBook(books, context);
+    }
+
+    private QueryResult<Book> scanHighestRatioBook(List<Book> books, QueryContext context) {
         float highestRatio = 0f;
         Book highestRatioBook = null;
+        QueryContext.Scan scan = context.startScan(books.size());
         for (Book b : books) {
+            if (!scan.proceed()) {
+                break;
+            }
             if (b.getRatingCount() < 25 && b.getTextReviewsCount() < 25) {
                 continue;
             }
@@ -186,7 +827,7 @@ public class BookStats {
             }
         }
 
-        return highestRatioBook;
+        return scan.finish(highestRatioBook);
     }
 
     public void load(String filepath) throws IOException {
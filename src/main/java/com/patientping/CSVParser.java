@@ -10,6 +10,55 @@ public class CSVParser {
     csvHeader = header.split(",");
   }
 
+  // the position of the named column in the header, or -1 if there's no such column
+  public static int columnIndex(String name) {
+    for (int i = 0; i < csvHeader.length; ++i) {
+      if (csvHeader[i].equals(name)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  public static int columnCount() {
+    return csvHeader.length;
+  }
+
+  // find where each column of the line starts and ends without copying any of
+  // them out, so callers can parse numbers in place. Up to columnStarts.length
+  // columns are recorded and the total number of columns is returned, counted
+  // the same way as parseLine does (trailing empty columns are dropped, like
+  // String.split drops them).
+  public static int findColumns(String line, int[] columnStarts, int[] columnEnds) {
+    int columns = 0;
+    int nonEmptyColumns = 0;
+    int start = 0;
+
+    while (true) {
+      int end = line.indexOf(',', start);
+      if (end < 0) {
+        end = line.length();
+      }
+
+      if (columns < columnStarts.length) {
+        columnStarts[columns] = start;
+        columnEnds[columns] = end;
+      }
+      ++columns;
+      if (end > start) {
+        nonEmptyColumns = columns;
+      }
+
+      if (end == line.length()) {
+        break;
+      }
+      start = end + 1;
+    }
+
+    // a line with no commas is a single column even if it's empty
+    return columns == 1 ? 1 : nonEmptyColumns;
+  }
+
   public static Map<String, String> parseLine(String line) {
     if (line == null) {
       return null;
@@ -0,0 +1,16 @@
+package com.patientping;
+
+// Shared between whoever starts a query and whoever may want to stop it.
+// Queries check it at every chunk boundary of their scan and throw a
+// CancellationException once it has been cancelled.
+public class CancellationToken {
+    private volatile boolean cancelled;
+
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+}
@@ -0,0 +1,336 @@
+package com.patientping;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+
+// Keeps a BookStats durable across restarts as a base snapshot plus a write
+// ahead log of the updates made since. Updates are appended to the log and
+// applied to the stats in memory, so they cost the same however big the
+// catalog is. Compaction rolls the log over and, in the background, writes
+// the current catalog as the new snapshot and folds the updates into the
+// stats' search index and other structures, after which the rolled log is
+// deleted. It starts by itself once the stats say a fold is due, which keeps
+// both the log and the stats' delta bounded, or can be asked for with compact().
+//
+// BookStats can't be read while it's updated, so the store guards it with a
+// read/write lock: run queries through read() while updates may be arriving.
+//
+// The directory holds at most these files:
+//   catalog.snapshot        the base snapshot
+//   catalog.log             updates made since the snapshot (or since the roll)
+//   catalog.log.compacting  updates being folded into the next snapshot
+public class CatalogStore implements Closeable {
+    private static final int SNAPSHOT_MAGIC = 0x42534E50;
+    private static final int SNAPSHOT_VERSION = 1;
+
+    private final Path snapshotPath;
+    private final Path logPath;
+    private final Path compactingLogPath;
+    private final BookStats stats;
+    private final int syncEvery;
+    private final ExecutorService compactor;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private WriteAheadLog log;
+    private Future<?> compaction;
+
+    private CatalogStore(Path directory, BookStats stats, int syncEvery) {
+        this.snapshotPath = directory.resolve("catalog.snapshot");
+        this.logPath = directory.resolve("catalog.log");
+        this.compactingLogPath = directory.resolve("catalog.log.compacting");
+        this.stats = stats;
+        this.syncEvery = syncEvery;
+        this.compactor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "catalog-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // restore the catalog from the directory into stats. If there's no
+    // snapshot yet, whatever stats already holds (say a freshly loaded csv)
+    // is the base the log is replayed on top of.
+    public static CatalogStore open(Path directory, BookStats stats, int syncEvery) throws IOException {
+        Files.createDirectories(directory);
+        CatalogStore store = new CatalogStore(directory, stats, syncEvery);
+
+        if (Files.exists(store.snapshotPath)) {
+            stats.loadBooks(readSnapshot(store.snapshotPath));
+        }
+        else if (stats.getBooks() == null) {
+            stats.loadBooks(new ArrayList<>());
+        }
+
+        // a compaction was interrupted before it could finish. Its updates come
+        // before the current log's, and replaying them again is harmless if the
+        // snapshot did get written, since upserts and deletes by id are idempotent.
+        if (Files.exists(store.compactingLogPath)) {
+            WriteAheadLog.replay(store.compactingLogPath, stats);
+            WriteAheadLog.replay(store.logPath, stats);
+            writeSnapshot(store.snapshotPath, stats.getBooks());
+            Files.delete(store.compactingLogPath);
+            Files.deleteIfExists(store.logPath);
+        }
+
+        store.log = WriteAheadLog.open(store.logPath, syncEvery, stats);
+        // replaying a long log can leave a fold due
+        synchronized (store) {
+            store.compactIfDue();
+        }
+        return store;
+    }
+
+    public BookStats getStats() {
+        return stats;
+    }
+
+    // run a query against the stats, never at the same time as an update
+    public <T> T read(Function<BookStats, T> query) {
+        lock.readLock().lock();
+        try {
+            return query.apply(stats);
+        }
+        finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // the update is in the log file before it's applied, and the stats are
+    // only locked while it's applied in memory
+    public synchronized void upsert(Book book) throws IOException {
+        log.appendUpsert(book);
+        lock.writeLock().lock();
+        try {
+            stats.upsert(book);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        compactIfDue();
+    }
+
+    public synchronized boolean delete(int id) throws IOException {
+        if (read(s -> s.findById(id)) == null) {
+            return false;
+        }
+        log.appendDelete(id);
+        boolean deleted;
+        lock.writeLock().lock();
+        try {
+            deleted = stats.delete(id);
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+        compactIfDue();
+        return deleted;
+    }
+
+    // start a compaction once the stats say a fold is due. The update that
+    // triggers it has already been applied, so a failure to start is kept as
+    // the compaction's result for close() to report rather than thrown at the
+    // caller, and no more compactions start by themselves after one fails.
+    private void compactIfDue() {
+        if (compaction != null && (!compaction.isDone() || failed(compaction))) {
+            return;
+        }
+        if (!read(BookStats::isFoldDue)) {
+            return;
+        }
+        try {
+            compact();
+        }
+        catch (IOException e) {
+            CompletableFuture<Void> failure = new CompletableFuture<>();
+            failure.completeExceptionally(e);
+            compaction = failure;
+        }
+    }
+
+    private static boolean failed(Future<?> done) {
+        try {
+            done.get();
+            return false;
+        }
+        catch (ExecutionException | CancellationException e) {
+            return true;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return true;
+        }
+    }
+
+    // force every update so far to disk, rather than waiting for the next batched sync
+    public synchronized void sync() throws IOException {
+        log.sync();
+    }
+
+    // start folding the log into a new snapshot in the background. Only the
+    // log roll and a copy of the book list happen under the lock, updates can
+    // carry on while the snapshot is written and the stats' structures are
+    // rebuilt, which are then swapped in under the write lock. If a compaction
+    // is already running its future is returned instead of starting another one.
+    public synchronized Future<?> compact() throws IOException {
+        if (compaction != null && !compaction.isDone()) {
+            return compaction;
+        }
+
+        log.close();
+        try {
+            if (Files.exists(compactingLogPath)) {
+                // an earlier compaction failed, so the updates in its log never made
+                // it into a snapshot. Keep them by adding this log's after them
+                // rather than moving this log over the top.
+                appendLog(logPath, compactingLogPath);
+                Files.delete(logPath);
+            }
+            else {
+                Files.move(logPath, compactingLogPath, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        finally {
+            // if the roll failed updates carry on into the log it left in place
+            log = WriteAheadLog.open(logPath, syncEvery, stats);
+        }
+
+        BookStats.Fold fold;
+        lock.writeLock().lock();
+        try {
+            fold = stats.startFold();
+        }
+        finally {
+            lock.writeLock().unlock();
+        }
+
+        compaction = compactor.submit(() -> {
+            boolean folded = false;
+            try {
+                writeSnapshot(snapshotPath, fold.getBooks());
+                fold.build();
+                lock.writeLock().lock();
+                try {
+                    stats.finishFold(fold);
+                    folded = true;
+                }
+                finally {
+                    lock.writeLock().unlock();
+                }
+                Files.delete(compactingLogPath);
+                return null;
+            }
+            finally {
+                if (!folded) {
+                    lock.writeLock().lock();
+                    try {
+                        stats.abandonFold(fold);
+                    }
+                    finally {
+                        lock.writeLock().unlock();
+                    }
+                }
+            }
+        });
+        return compaction;
+    }
+
+    // copy the records of one log onto the end of another and fsync it. If we
+    // crash before the source is deleted its records are replayed twice on
+    // open, which is harmless since upserts and deletes by id are idempotent.
+    private static void appendLog(Path source, Path target) throws IOException {
+        try (FileChannel out = FileChannel.open(target, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            if (Files.exists(source)) {
+                Files.copy(source, Channels.newOutputStream(out));
+            }
+            out.force(false);
+        }
+    }
+
+    // wait for any running compaction then flush and close the log
+    @Override
+    public void close() throws IOException {
+        Future<?> running;
+        synchronized (this) {
+            running = compaction;
+        }
+
+        try {
+            if (running != null) {
+                running.get();
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted waiting for compaction", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("Compaction failed", e.getCause());
+        }
+        finally {
+            compactor.shutdown();
+            synchronized (this) {
+                log.close();
+            }
+        }
+    }
+
+    // write to a temporary file first and move it into place, so a crash part
+    // way through never leaves a half written snapshot behind
+    private static void writeSnapshot(Path path, List<Book> books) throws IOException {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeInt(books.size());
+            for (Book b : books) {
+                BookCodec.write(out, b);
+            }
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temporary, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static List<Book> readSnapshot(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Not a catalog snapshot: " + path);
+            }
+            int version = in.readInt();
+            if (version != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported catalog snapshot version " + version);
+            }
+
+            int count = in.readInt();
+            List<Book> books = new ArrayList<>(count);
+            for (int i = 0; i < count; ++i) {
+                books.add(BookCodec.read(in));
+            }
+            return books;
+        }
+    }
+}
@@ -0,0 +1,328 @@
+package com.patientping;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.stream.IntStream;
+
+// Who has written books with whom, built from the authors column. Authors
+// are numbered and the graph is stored in compressed sparse row form: the
+// neighbours of author a are neighbours[offsets[a]] up to (not including)
+// neighbours[offsets[a + 1]], sorted by author number, with the number of
+// books they share and the sum of those books' ratings in the parallel
+// sharedBooks and combinedRatings arrays. Everything is primitive arrays, so
+// memory grows with the number of edges without an object per edge.
+public class CoAuthorGraph {
+    private final String[] authors;
+    private final Map<String, Integer> authorIds;
+
+    private final int[] offsets;
+    private final int[] neighbours;
+    private final int[] sharedBooks;
+    private final float[] combinedRatings;
+
+    // which connected component each author is in, and how big each component is
+    private final int[] components;
+    private final int[] componentSizes;
+
+    // a coauthor of an author, as returned by neighbours()
+    public static class CoAuthor {
+        private final String author;
+        private final int sharedBooks;
+        private final float combinedRating;
+
+        CoAuthor(String author, int sharedBooks, float combinedRating) {
+            this.author = author;
+            this.sharedBooks = sharedBooks;
+            this.combinedRating = combinedRating;
+        }
+
+        public String getAuthor() {
+            return author;
+        }
+
+        public int getSharedBooks() {
+            return sharedBooks;
+        }
+
+        // the sum of the average ratings of every book the two wrote together
+        public float getCombinedRating() {
+            return combinedRating;
+        }
+    }
+
+    private CoAuthorGraph(String[] authors, Map<String, Integer> authorIds, int[] offsets, int[] neighbours,
+                          int[] sharedBooks, float[] combinedRatings) {
+        this.authors = authors;
+        this.authorIds = authorIds;
+        this.offsets = offsets;
+        this.neighbours = neighbours;
+        this.sharedBooks = sharedBooks;
+        this.combinedRatings = combinedRatings;
+
+        this.components = new int[authors.length];
+        this.componentSizes = labelComponents();
+    }
+
+    public static CoAuthorGraph build(List<Book> books) {
+        int bookCount = books.size();
+
+        // split every book's authors the same way indexByAuthor does, in parallel
+        String[][] namesByBook = new String[bookCount][];
+        IntStream.range(0, bookCount).parallel().forEach(book -> {
+            String authors = books.get(book).getAuthors();
+            namesByBook[book] = authors == null ? new String[0] : authors.split("-");
+        });
+
+        // number the authors, an author listed twice on one book only counts once
+        Map<String, Integer> authorIds = new HashMap<>();
+        List<String> authorNames = new ArrayList<>();
+        int[][] authorsByBook = new int[bookCount][];
+        for (int book = 0; book < bookCount; ++book) {
+            int[] ids = new int[namesByBook[book].length];
+            int count = 0;
+            for (String name : namesByBook[book]) {
+                Integer id = authorIds.get(name);
+                if (id == null) {
+                    id = authorNames.size();
+                    authorIds.put(name, id);
+                    authorNames.add(name);
+                }
+                if (!contains(ids, count, id)) {
+                    ids[count++] = id;
+                }
+            }
+            authorsByBook[book] = count == ids.length ? ids : Arrays.copyOf(ids, count);
+        }
+        int authorCount = authorNames.size();
+
+        // every ordered pair of authors on a book is an edge. Work out where each
+        // book's edges go so the books can write them in parallel, packing the
+        // pair into one long so sorting groups them by author then coauthor.
+        long[] edgeStarts = new long[bookCount + 1];
+        for (int book = 0; book < bookCount; ++book) {
+            long m = authorsByBook[book].length;
+            edgeStarts[book + 1] = edgeStarts[book] + m * (m - 1);
+        }
+        if (edgeStarts[bookCount] > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many coauthor pairs: " + edgeStarts[bookCount]);
+        }
+
+        long[] pairs = new long[(int) edgeStarts[bookCount]];
+        IntStream.range(0, bookCount).parallel().forEach(book -> {
+            int[] ids = authorsByBook[book];
+            int next = (int) edgeStarts[book];
+            for (int a : ids) {
+                for (int b : ids) {
+                    if (a != b) {
+                        pairs[next++] = ((long) a << 32) | b;
+                    }
+                }
+            }
+        });
+        Arrays.parallelSort(pairs);
+
+        // collapse repeated pairs into one edge, counting how many books the pair shares
+        int edgeCount = 0;
+        for (int i = 0; i < pairs.length; ++i) {
+            if (i == 0 || pairs[i] != pairs[i - 1]) {
+                ++edgeCount;
+            }
+        }
+
+        int[] offsets = new int[authorCount + 1];
+        int[] neighbours = new int[edgeCount];
+        int[] sharedBooks = new int[edgeCount];
+        int edge = -1;
+        for (int i = 0; i < pairs.length; ++i) {
+            if (i == 0 || pairs[i] != pairs[i - 1]) {
+                ++edge;
+                neighbours[edge] = (int) pairs[i];
+                offsets[(int) (pairs[i] >>> 32) + 1]++;
+            }
+            sharedBooks[edge]++;
+        }
+        for (int a = 0; a < authorCount; ++a) {
+            offsets[a + 1] += offsets[a];
+        }
+
+        // the books of each author, also in compressed sparse row form
+        int[] bookOffsets = new int[authorCount + 1];
+        for (int[] ids : authorsByBook) {
+            for (int a : ids) {
+                bookOffsets[a + 1]++;
+            }
+        }
+        for (int a = 0; a < authorCount; ++a) {
+            bookOffsets[a + 1] += bookOffsets[a];
+        }
+        int[] booksByAuthor = new int[bookOffsets[authorCount]];
+        int[] filled = Arrays.copyOf(bookOffsets, authorCount);
+        for (int book = 0; book < bookCount; ++book) {
+            for (int a : authorsByBook[book]) {
+                booksByAuthor[filled[a]++] = book;
+            }
+        }
+
+        // add up the ratings of the shared books. Each author only writes to its
+        // own row of edges, so the authors can be handled in parallel.
+        float[] combinedRatings = new float[edgeCount];
+        IntStream.range(0, authorCount).parallel().forEach(a -> {
+            for (int i = bookOffsets[a]; i < bookOffsets[a + 1]; ++i) {
+                int book = booksByAuthor[i];
+                float rating = books.get(book).getAverageRating();
+                for (int b : authorsByBook[book]) {
+                    if (b != a) {
+                        combinedRatings[Arrays.binarySearch(neighbours, offsets[a], offsets[a + 1], b)] += rating;
+                    }
+                }
+            }
+        });
+
+        return new CoAuthorGraph(authorNames.toArray(new String[0]), authorIds, offsets, neighbours,
+            sharedBooks, combinedRatings);
+    }
+
+    public int getAuthorCount() {
+        return authors.length;
+    }
+
+    // each coauthorship is counted once, not once from each side
+    public int getEdgeCount() {
+        return neighbours.length / 2;
+    }
+
+    public int getComponentCount() {
+        return componentSizes.length;
+    }
+
+    // how many distinct coauthors the author has, 0 for unknown authors
+    public int degree(String author) {
+        Integer a = authorIds.get(author);
+        return a == null ? 0 : offsets[a + 1] - offsets[a];
+    }
+
+    // the authors with the most distinct coauthors, most first, ties broken by name
+    public List<Map.Entry<String, Integer>> topByDegree(int k) {
+        List<Map.Entry<String, Integer>> top = new ArrayList<>();
+        if (k <= 0) {
+            return top;
+        }
+
+        // a min heap of the best k author numbers seen so far
+        PriorityQueue<Integer> best = new PriorityQueue<>(k + 1, (a, b) -> compareByDegree(b, a));
+        for (int a = 0; a < authors.length; ++a) {
+            best.add(a);
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+
+        List<Integer> ids = new ArrayList<>(best);
+        ids.sort(this::compareByDegree);
+        for (int a : ids) {
+            top.add(new AbstractMap.SimpleEntry<>(authors[a], offsets[a + 1] - offsets[a]));
+        }
+        return top;
+    }
+
+    // the author's coauthors, the ones they've shared the most books with
+    // first, then by the combined rating of those books
+    public List<CoAuthor> neighbours(String author) {
+        List<CoAuthor> coAuthors = new ArrayList<>();
+        Integer a = authorIds.get(author);
+        if (a == null) {
+            return coAuthors;
+        }
+
+        for (int edge = offsets[a]; edge < offsets[a + 1]; ++edge) {
+            coAuthors.add(new CoAuthor(authors[neighbours[edge]], sharedBooks[edge], combinedRatings[edge]));
+        }
+        coAuthors.sort((x, y) -> {
+            if (x.getSharedBooks() != y.getSharedBooks()) {
+                return Integer.compare(y.getSharedBooks(), x.getSharedBooks());
+            }
+            if (x.getCombinedRating() != y.getCombinedRating()) {
+                return Float.compare(y.getCombinedRating(), x.getCombinedRating());
+            }
+            return x.getAuthor().compareTo(y.getAuthor());
+        });
+        return coAuthors;
+    }
+
+    // whether two authors are connected through any chain of coauthors
+    public boolean connected(String author, String other) {
+        Integer a = authorIds.get(author);
+        Integer b = authorIds.get(other);
+        return a != null && b != null && components[a] == components[b];
+    }
+
+    // how many authors are in this author's connected component, 0 for unknown authors
+    public int componentSize(String author) {
+        Integer a = authorIds.get(author);
+        return a == null ? 0 : componentSizes[components[a]];
+    }
+
+    public int largestComponentSize() {
+        int largest = 0;
+        for (int size : componentSizes) {
+            largest = Math.max(largest, size);
+        }
+        return largest;
+    }
+
+    // breadth first search from every author not yet labelled. Returns the size
+    // of each component. The queue is one int array shared by every search.
+    private int[] labelComponents() {
+        Arrays.fill(components, -1);
+        int[] queue = new int[authors.length];
+        int[] sizes = new int[16];
+        int componentCount = 0;
+
+        for (int start = 0; start < authors.length; ++start) {
+            if (components[start] >= 0) {
+                continue;
+            }
+
+            int head = 0;
+            int tail = 0;
+            queue[tail++] = start;
+            components[start] = componentCount;
+            while (head < tail) {
+                int a = queue[head++];
+                for (int edge = offsets[a]; edge < offsets[a + 1]; ++edge) {
+                    int b = neighbours[edge];
+                    if (components[b] < 0) {
+                        components[b] = componentCount;
+                        queue[tail++] = b;
+                    }
+                }
+            }
+
+            if (componentCount == sizes.length) {
+                sizes = Arrays.copyOf(sizes, sizes.length * 2);
+            }
+            sizes[componentCount++] = tail;
+        }
+        return Arrays.copyOf(sizes, componentCount);
+    }
+
+    private int compareByDegree(int a, int b) {
+        int degreeA = offsets[a + 1] - offsets[a];
+        int degreeB = offsets[b + 1] - offsets[b];
+        return degreeA != degreeB ? Integer.compare(degreeB, degreeA) : authors[a].compareTo(authors[b]);
+    }
+
+    private static boolean contains(int[] values, int count, int value) {
+        for (int i = 0; i < count; ++i) {
+            if (values[i] == value) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,121 @@
+package com.patientping;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Statistics about the loaded books that the QueryPlanner uses to estimate
+// how many rows a filter will match: exact value counts for the low
+// cardinality language and author columns, and histograms for the numeric
+// ratingCount and numPages columns. BookStats keeps them up to date as books
+// are upserted and deleted rather than collecting them again: the counts and
+// the histogram buckets are adjusted in place, so an update costs the same
+// however many books are loaded or have changed since the last collect.
+public class ColumnStatistics {
+    private static final int HISTOGRAM_BUCKETS = 64;
+
+    private int rowCount;
+    private final Map<String, Integer> languageCounts;
+    private final Map<String, Integer> authorCounts;
+    private final Histogram ratingCounts;
+    private final Histogram numPages;
+
+    private ColumnStatistics(int rowCount, Map<String, Integer> languageCounts, Map<String, Integer> authorCounts,
+                             Histogram ratingCounts, Histogram numPages) {
+        this.rowCount = rowCount;
+        this.languageCounts = languageCounts;
+        this.authorCounts = authorCounts;
+        this.ratingCounts = ratingCounts;
+        this.numPages = numPages;
+    }
+
+    public static ColumnStatistics collect(List<Book> books) {
+        Map<String, Integer> languageCounts = new HashMap<>();
+        Map<String, Integer> authorCounts = new HashMap<>();
+        int[] ratingCounts = new int[books.size()];
+        int[] numPages = new int[books.size()];
+
+        for (int row = 0; row < books.size(); ++row) {
+            Book b = books.get(row);
+            count(languageCounts, authorCounts, b, 1);
+            ratingCounts[row] = b.getRatingCount();
+            numPages[row] = b.getNumPages();
+        }
+
+        return new ColumnStatistics(
+            books.size(),
+            languageCounts,
+            authorCounts,
+            Histogram.build(ratingCounts, HISTOGRAM_BUCKETS),
+            Histogram.build(numPages, HISTOGRAM_BUCKETS)
+        );
+    }
+
+    void add(Book book) {
+        update(book, 1);
+    }
+
+    void remove(Book book) {
+        update(book, -1);
+    }
+
+    private void update(Book book, int delta) {
+        rowCount += delta;
+        count(languageCounts, authorCounts, book, delta);
+        ratingCounts.adjust(book.getRatingCount(), delta);
+        numPages.adjust(book.getNumPages(), delta);
+    }
+
+    // counts of zero are dropped so the cardinalities stay right
+    private static void count(Map<String, Integer> languageCounts, Map<String, Integer> authorCounts, Book book,
+                              int delta) {
+        languageCounts.merge(String.valueOf(book.getLanguage()), delta, (a, b) -> a + b == 0 ? null : a + b);
+        if (book.getAuthors() != null) {
+            // split the same way indexByAuthor does
+            for (String author : book.getAuthors().split("-")) {
+                authorCounts.merge(author, delta, (a, b) -> a + b == 0 ? null : a + b);
+            }
+        }
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getLanguageCardinality() {
+        return languageCounts.size();
+    }
+
+    public int getAuthorCardinality() {
+        return authorCounts.size();
+    }
+
+    public Histogram getRatingCountHistogram() {
+        return ratingCounts;
+    }
+
+    public Histogram getNumPagesHistogram() {
+        return numPages;
+    }
+
+    public double estimateLanguageIn(Collection<String> languages) {
+        double rows = 0;
+        for (String language : languages) {
+            rows += languageCounts.getOrDefault(language, 0);
+        }
+        return rows;
+    }
+
+    public double estimateAuthor(String author) {
+        return authorCounts.getOrDefault(author, 0);
+    }
+
+    public double estimateRatingCountBetween(int min, int max) {
+        return ratingCounts.estimateBetween(min, max);
+    }
+
+    public double estimateNumPagesBetween(int min, int max) {
+        return numPages.estimateBetween(min, max);
+    }
+}
@@ -25,12 +25,9 @@ public class DisplayBookStats {
     }
 
     public void printAuthorWithMostEnglishBooks() {
-        // get a list of just the english books
-        List<Book> englishBooks = stats.filterToEnglishBooks();
-        // index those english books by author name
-        Map<String, List<Book>> indexed = stats.indexByAuthor(englishBooks);
-        // from that index, find the author who wrote the most books
-        Map.Entry<String, Integer> mostEnglish = stats.findMostBooksByAuthor(indexed);
+        // index the english books by author and find the author who wrote the
+        // most, served from the cache on every refresh after the first
+        Map.Entry<String, Integer> mostEnglish = stats.findAuthorWithMostEnglishBooks();
 
         if (mostEnglish != null) {
             System.out.println(
@@ -72,10 +69,8 @@ public class DisplayBookStats {
     }
 
     public void printAuthorWithHighestAverageRating() {
-        // index all the books by author
-        Map<String, List<Book>> indexed = stats.indexByAuthor();
-        // from that index find the author with the highest average rating
-        Map.Entry<String, Double> highestAverageRating = stats.findAuthorWithHighestAverageRating(indexed);
+        // find the author with the highest average rating across all their books, also cached
+        Map.Entry<String, Double> highestAverageRating = stats.findAuthorWithHighestAverageRating();
 
         if (highestAverageRating != null) {
             System.out.println(
@@ -0,0 +1,123 @@
+package com.patientping;
+
+import java.util.Arrays;
+
+// An equi-depth histogram of an int column: bucket boundaries are chosen so
+// every bucket holds about the same number of rows, which keeps estimates
+// accurate for skewed columns like rating counts where most books have few
+// ratings and a handful have millions. Within a bucket values are assumed to
+// be spread evenly. Rows added or removed after the build are counted in the
+// bucket their value falls in, widening the first or last bucket for values
+// outside the built range, so the bucket boundaries drift from equal depth
+// until the histogram is built again.
+public class Histogram {
+    private int rowCount;
+    // as of the build, it isn't kept up to date by adjust()
+    private final int distinctCount;
+    // bucket i covers values from bounds[i] to bounds[i + 1] and holds counts[i] rows
+    private int[] bounds;
+    private int[] counts;
+
+    private Histogram(int rowCount, int distinctCount, int[] bounds, int[] counts) {
+        this.rowCount = rowCount;
+        this.distinctCount = distinctCount;
+        this.bounds = bounds;
+        this.counts = counts;
+    }
+
+    public static Histogram build(int[] values, int buckets) {
+        int[] sorted = values.clone();
+        Arrays.sort(sorted);
+
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; ++i) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                ++distinct;
+            }
+        }
+
+        if (sorted.length == 0) {
+            return new Histogram(0, 0, new int[0], new int[0]);
+        }
+
+        int bucketCount = Math.min(buckets, sorted.length);
+        int[] bounds = new int[bucketCount + 1];
+        int[] counts = new int[bucketCount];
+        for (int b = 0; b < bucketCount; ++b) {
+            int start = (int) ((long) b * sorted.length / bucketCount);
+            int end = (int) ((long) (b + 1) * sorted.length / bucketCount);
+            bounds[b] = sorted[start];
+            counts[b] = end - start;
+        }
+        bounds[bucketCount] = sorted[sorted.length - 1];
+
+        return new Histogram(sorted.length, distinct, bounds, counts);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getDistinctCount() {
+        return distinctCount;
+    }
+
+    // count delta more rows (or fewer, if negative) with this value. Each
+    // bucket's count can drift negative when rows counted in it at the build
+    // are taken out of a neighbouring bucket sharing a boundary value, but the
+    // total stays right.
+    void adjust(int value, int delta) {
+        rowCount += delta;
+        if (counts.length == 0) {
+            bounds = new int[] { value, value };
+            counts = new int[] { delta };
+            return;
+        }
+
+        bounds[0] = Math.min(bounds[0], value);
+        bounds[counts.length] = Math.max(bounds[counts.length], value);
+        counts[bucketOf(value)] += delta;
+    }
+
+    // the last bucket starting at or below the value
+    private int bucketOf(int value) {
+        int low = 0;
+        int high = counts.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (bounds[mid] <= value) {
+                low = mid;
+            }
+            else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    // roughly how many rows have a value between min and max inclusive
+    public double estimateBetween(int min, int max) {
+        if (min > max) {
+            return 0;
+        }
+
+        double estimate = 0;
+        for (int b = 0; b < counts.length; ++b) {
+            long low = bounds[b];
+            long high = bounds[b + 1];
+            if (max < low || min > high) {
+                continue;
+            }
+            if (low == high) {
+                // a bucket holding a single value, it's either all in or all out
+                estimate += counts[b];
+                continue;
+            }
+            // the part of the bucket's range that overlaps [min, max]
+            long overlapLow = Math.max(low, min);
+            long overlapHigh = Math.min(high, max);
+            estimate += counts[b] * (double) (overlapHigh - overlapLow + 1) / (high - low + 1);
+        }
+        return Math.max(0, Math.min(estimate, rowCount));
+    }
+}
@@ -8,6 +8,12 @@ import java.io.IOException;
 public class Main {
 
     public static void main(String[] args) throws IOException {
+        // with arguments, run the requested batch of reports instead of the summary below
+        if (args.length > 0) {
+            BatchReport.run(args, System.out);
+            return;
+        }
+
         BookStats bookStats = new BookStats();
         bookStats.load("/books.csv");
 
@@ -0,0 +1,103 @@
+package com.patientping;
+
+// Parses numbers straight out of a range of a line, so the csv loader doesn't
+// have to cut a new String out for every numeric column. The common shapes
+// in the books data (plain integers like 652 and short decimals like 4.56)
+// are handled by a fast path; anything else falls back to the JDK parser on
+// just that range, so results and exceptions are always identical to
+// Integer.parseInt and Float.parseFloat.
+public class NumberParser {
+    // up to 9 digits always fits in an int
+    private static final int MAX_FAST_INT_DIGITS = 9;
+    // every integer up to 2^24 fits exactly in a float's 24 bit mantissa
+    private static final long MAX_FAST_FLOAT_MANTISSA = 1 << 24;
+
+    // every power of ten up to 10^10 is exactly representable as a float
+    private static final float[] FLOAT_POWERS_OF_TEN = {
+        1e0f, 1e1f, 1e2f, 1e3f, 1e4f, 1e5f, 1e6f, 1e7f, 1e8f, 1e9f, 1e10f
+    };
+
+    private NumberParser() {
+    }
+
+    public static int parseInt(String s) {
+        return parseInt(s, 0, s.length());
+    }
+
+    // the same as Integer.parseInt(s.substring(start, end))
+    public static int parseInt(String s, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            ++i;
+        }
+
+        int digits = end - i;
+        if (digits <= 0 || digits > MAX_FAST_INT_DIGITS) {
+            return Integer.parseInt(s.substring(start, end));
+        }
+
+        int value = 0;
+        for (; i < end; ++i) {
+            int digit = s.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return Integer.parseInt(s.substring(start, end));
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    public static float parseFloat(String s) {
+        return parseFloat(s, 0, s.length());
+    }
+
+    // the same as Float.parseFloat(s.substring(start, end)). The fast path
+    // accepts an optional sign, digits and at most one decimal point. The
+    // digits are gathered into an integer no bigger than 2^24 and divided by a
+    // power of ten no bigger than 10^10. Both are exact floats, so the one
+    // float division is correctly rounded, just like the JDK. Going through
+    // double instead would round twice, and a decimal close to halfway between
+    // two floats can come out one float off.
+    public static float parseFloat(String s, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (s.charAt(i) == '-' || s.charAt(i) == '+')) {
+            negative = s.charAt(i) == '-';
+            ++i;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean seenPoint = false;
+        for (; i < end; ++i) {
+            char c = s.charAt(i);
+            if (c >= '0' && c <= '9') {
+                mantissa = mantissa * 10 + (c - '0');
+                if (seenPoint) {
+                    ++fractionDigits;
+                }
+                ++digits;
+                if (mantissa > MAX_FAST_FLOAT_MANTISSA || fractionDigits >= FLOAT_POWERS_OF_TEN.length) {
+                    return Float.parseFloat(s.substring(start, end));
+                }
+            }
+            else if (c == '.' && !seenPoint) {
+                seenPoint = true;
+            }
+            else {
+                // exponents, whitespace, NaN, Infinity, type suffixes and malformed input
+                return Float.parseFloat(s.substring(start, end));
+            }
+        }
+
+        if (digits == 0) {
+            return Float.parseFloat(s.substring(start, end));
+        }
+
+        float value = (float) mantissa / FLOAT_POWERS_OF_TEN[fractionDigits];
+        return negative ? -value : value;
+    }
+}
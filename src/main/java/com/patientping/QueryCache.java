@@ -0,0 +1,169 @@
+package com.patientping;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.function.Supplier;
+
+// A size bounded, least recently used cache of query results. Entries are
+// keyed by the query name together with the version of the data they were
+// computed from, so a result computed against old data can never be returned
+// after new data has been loaded, even if it was stored after the reload.
+public class QueryCache {
+    // stands in for a null result, so queries with no answer are cached too
+    private static final Object NULL = new Object();
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, Object> entries;
+    // computations running right now, keyed like entries
+    private final Map<String, FutureTask<Object>> inFlight = new HashMap<>();
+
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    public QueryCache(int maxEntries) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("maxEntries must be positive: " + maxEntries);
+        }
+        this.maxEntries = maxEntries;
+        // access ordered so the eldest entry is always the least recently used one
+        this.entries = new LinkedHashMap<String, Object>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Object> eldest) {
+                if (size() > QueryCache.this.maxEntries) {
+                    evictionCount++;
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    // return the cached result of the query for this data version, computing
+    // and storing it on a miss. The computation runs outside the lock so a slow
+    // query doesn't block readers of other cached results. Callers missing on a
+    // key that is already being computed wait for that result rather than
+    // computing it again.
+    @SuppressWarnings("unchecked")
+    public <T> T get(String query, long dataVersion, Supplier<T> compute) {
+        String key = dataVersion + ":" + query;
+
+        // stores the result once computed. If the computation throws nothing
+        // is cached and the next caller tries again.
+        FutureTask<Object> task = new FutureTask<>(() -> {
+            T computed = compute.get();
+            Object result = computed == null ? NULL : computed;
+            synchronized (this) {
+                entries.put(key, result);
+            }
+            return result;
+        });
+
+        FutureTask<Object> running;
+        synchronized (this) {
+            Object cached = entries.get(key);
+            if (cached != null) {
+                hitCount++;
+                return cached == NULL ? null : (T) cached;
+            }
+            missCount++;
+            running = inFlight.computeIfAbsent(key, k -> task);
+        }
+
+        if (running == task) {
+            task.run();
+            synchronized (this) {
+                inFlight.remove(key);
+            }
+        }
+
+        Object result = await(running);
+        return result == NULL ? null : (T) result;
+    }
+
+    // the computed result, or what the computation threw
+    private static Object await(FutureTask<Object> task) {
+        try {
+            return task.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a query", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new IllegalStateException("Query failed", e.getCause());
+        }
+    }
+
+    // the cached result of the query for this data version, or absent if
+    // there isn't one, without computing anything. Counts as a hit or miss.
+    @SuppressWarnings("unchecked")
+    public synchronized <T> T getIfCached(String query, long dataVersion, T absent) {
+        Object cached = entries.get(dataVersion + ":" + query);
+        if (cached == null) {
+            missCount++;
+            return absent;
+        }
+        hitCount++;
+        return cached == NULL ? null : (T) cached;
+    }
+
+    // store a result computed by the caller, for queries that decide for
+    // themselves whether a result is worth caching
+    public synchronized void put(String query, long dataVersion, Object result) {
+        entries.put(dataVersion + ":" + query, result == null ? NULL : result);
+    }
+
+    // whether the query's result for this data version is cached, without
+    // counting as a hit or miss or changing which entry is evicted next
+    public synchronized boolean contains(String query, long dataVersion) {
+        return entries.containsKey(dataVersion + ":" + query);
+    }
+
+    // drop every cached result, called whenever new data is loaded
+    public synchronized void invalidateAll() {
+        entries.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    public synchronized double getHitRate() {
+        long requests = hitCount + missCount;
+        return requests == 0 ? 0.0 : (double) hitCount / requests;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format(
+            "QueryCache[size=%d/%d, hits=%d, misses=%d, evictions=%d, hitRate=%.2f]",
+            entries.size(), maxEntries, hitCount, missCount, evictionCount, getHitRate()
+        );
+    }
+}
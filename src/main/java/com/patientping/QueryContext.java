@@ -0,0 +1,131 @@
+package com.patientping;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+// Limits on how long a query may run. Scans check the cancellation token and
+// the deadline once per chunk of rows rather than on every row, which keeps
+// the cost of the checks negligible. Contexts are immutable and can be shared
+// by many queries; each scan keeps its own progress in a Scan.
+public class QueryContext {
+    public static final int DEFAULT_CHUNK_SIZE = 1024;
+
+    // called at every chunk boundary, for example to export progress metrics
+    public interface ProgressListener {
+        void onProgress(long rowsScanned, long totalRows);
+    }
+
+    private static final long NO_DEADLINE = Long.MAX_VALUE;
+    private static final QueryContext UNBOUNDED =
+        new QueryContext(System::nanoTime, NO_DEADLINE, null, false, DEFAULT_CHUNK_SIZE, null);
+
+    // where the deadline and elapsed times are measured from
+    private final LongSupplier nanoClock;
+
+    private final long deadlineNanos;
+    private final CancellationToken cancellationToken;
+    private final boolean partialResultsAllowed;
+    private final int chunkSize;
+    private final ProgressListener progressListener;
+
+    private QueryContext(LongSupplier nanoClock, long deadlineNanos, CancellationToken cancellationToken,
+                         boolean partialResultsAllowed, int chunkSize, ProgressListener progressListener) {
+        this.nanoClock = nanoClock;
+        this.deadlineNanos = deadlineNanos;
+        this.cancellationToken = cancellationToken;
+        this.partialResultsAllowed = partialResultsAllowed;
+        this.chunkSize = chunkSize;
+        this.progressListener = progressListener;
+    }
+
+    // no deadline and no way to cancel, what the methods without a context use
+    public static QueryContext unbounded() {
+        return UNBOUNDED;
+    }
+
+    // the deadline starts counting now, not when the query starts
+    public static QueryContext withTimeout(long timeout, TimeUnit unit) {
+        return withTimeout(timeout, unit, System::nanoTime);
+    }
+
+    // the same, timed by the given clock of nanoseconds rather than
+    // System.nanoTime, so tests can move time on exactly when they want
+    public static QueryContext withTimeout(long timeout, TimeUnit unit, LongSupplier nanoClock) {
+        return new QueryContext(nanoClock, nanoClock.getAsLong() + unit.toNanos(timeout), null, false,
+            DEFAULT_CHUNK_SIZE, null);
+    }
+
+    public QueryContext cancellableBy(CancellationToken token) {
+        return new QueryContext(nanoClock, deadlineNanos, token, partialResultsAllowed, chunkSize, progressListener);
+    }
+
+    // when the deadline passes, return what has been computed so far instead of throwing
+    public QueryContext allowingPartialResults() {
+        return new QueryContext(nanoClock, deadlineNanos, cancellationToken, true, chunkSize, progressListener);
+    }
+
+    public QueryContext inChunksOf(int rows) {
+        if (rows <= 0) {
+            throw new IllegalArgumentException("chunk size must be positive: " + rows);
+        }
+        return new QueryContext(nanoClock, deadlineNanos, cancellationToken, partialResultsAllowed, rows, progressListener);
+    }
+
+    public QueryContext reportingProgressTo(ProgressListener listener) {
+        return new QueryContext(nanoClock, deadlineNanos, cancellationToken, partialResultsAllowed, chunkSize, listener);
+    }
+
+    public Scan startScan(long totalRows) {
+        return new Scan(totalRows);
+    }
+
+    // The progress of one scan. Call proceed() before each row, and stop
+    // scanning when it returns false.
+    public class Scan {
+        private final long totalRows;
+        private final long startNanos = nanoClock.getAsLong();
+        private long rowsScanned;
+        private boolean partial;
+
+        private Scan(long totalRows) {
+            this.totalRows = totalRows;
+        }
+
+        // whether the next row should be scanned. At every chunk boundary this
+        // throws a CancellationException if the query was cancelled and, once
+        // the deadline has passed, either returns false (partial results
+        // allowed) or throws a QueryTimeoutException.
+        public boolean proceed() {
+            if (rowsScanned % chunkSize == 0) {
+                // report first, so a listener that cancels stops the scan right here
+                if (progressListener != null && rowsScanned > 0) {
+                    progressListener.onProgress(rowsScanned, totalRows);
+                }
+                if (cancellationToken != null && cancellationToken.isCancelled()) {
+                    throw new CancellationException("Query cancelled after scanning " + rowsScanned + " of " + totalRows + " rows");
+                }
+                if (deadlineNanos != NO_DEADLINE && nanoClock.getAsLong() - deadlineNanos >= 0) {
+                    if (!partialResultsAllowed) {
+                        throw new QueryTimeoutException(rowsScanned, totalRows);
+                    }
+                    partial = true;
+                    return false;
+                }
+            }
+            rowsScanned++;
+            return true;
+        }
+
+        public long getRowsScanned() {
+            return rowsScanned;
+        }
+
+        public <T> QueryResult<T> finish(T value) {
+            if (progressListener != null) {
+                progressListener.onProgress(rowsScanned, totalRows);
+            }
+            return new QueryResult<>(value, partial, rowsScanned, totalRows, nanoClock.getAsLong() - startNanos);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+package com.patientping;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// How a BookQuery will be answered: an access path that produces candidate
+// books, then the remaining filters applied in order. Executing the plan
+// records how many rows actually came out of each step so explain() can show
+// them next to the estimates the plan was chosen by. Like the other scans it
+// can run under a QueryContext, which bounds both building the access path's
+// structure, if it isn't cached yet, and filtering the candidates.
+public class QueryPlan {
+    public enum AccessPath {
+        // test every loaded book
+        FULL_SCAN,
+        // look the author up in the indexByAuthor map
+        AUTHOR_INDEX,
+        // start from the cached filterToLanguages list
+        LANGUAGE_FILTER
+    }
+
+    private final BookStats stats;
+    private final AccessPath accessPath;
+    // the filter the access path answers, null for a full scan
+    private final BookQuery.Filter accessFilter;
+    // whether the access path's structure was already built when planning
+    private final boolean accessCached;
+    private final double estimatedAccessRows;
+    private final List<BookQuery.Filter> filters;
+    private final double[] estimatedRows;
+    private final double cost;
+
+    // filled in by execute()
+    private long actualAccessRows = -1;
+    private final long[] actualRows;
+    private boolean partial;
+
+    QueryPlan(BookStats stats, AccessPath accessPath, BookQuery.Filter accessFilter, boolean accessCached,
+              double estimatedAccessRows, List<BookQuery.Filter> filters, double[] estimatedRows, double cost) {
+        this.stats = stats;
+        this.accessPath = accessPath;
+        this.accessFilter = accessFilter;
+        this.accessCached = accessCached;
+        this.estimatedAccessRows = estimatedAccessRows;
+        this.filters = Collections.unmodifiableList(new ArrayList<>(filters));
+        this.estimatedRows = estimatedRows;
+        this.cost = cost;
+        this.actualRows = new long[filters.size()];
+    }
+
+    public AccessPath getAccessPath() {
+        return accessPath;
+    }
+
+    // the filters applied after the access path, in the order they're tested
+    public List<BookQuery.Filter> getFilters() {
+        return filters;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+    public double getEstimatedRows() {
+        return filters.isEmpty() ? estimatedAccessRows : estimatedRows[estimatedRows.length - 1];
+    }
+
+    public List<Book> execute() {
+        return execute(QueryContext.unbounded()).getValue();
+    }
+
+    // run the plan under the context. With partial results allowed, a plan
+    // that runs out of time returns the matches among the rows it got to.
+    public synchronized QueryResult<List<Book>> execute(QueryContext context) {
+        QueryResult<List<Book>> result = candidates(context).then(candidates -> filter(candidates, context));
+        partial = result.isPartial();
+        return result;
+    }
+
+    private QueryResult<List<Book>> filter(List<Book> candidates, QueryContext context) {
+        actualAccessRows = candidates.size();
+        long[] passed = new long[filters.size()];
+
+        List<Book> matches = new ArrayList<>();
+        QueryContext.Scan scan = context.startScan(candidates.size());
+        for (Book b : candidates) {
+            if (!scan.proceed()) {
+                break;
+            }
+            boolean matched = true;
+            for (int i = 0; i < filters.size(); ++i) {
+                if (!filters.get(i).matches(b)) {
+                    matched = false;
+                    break;
+                }
+                passed[i]++;
+            }
+            if (matched) {
+                matches.add(b);
+            }
+        }
+
+        System.arraycopy(passed, 0, actualRows, 0, passed.length);
+        return scan.finish(matches);
+    }
+
+    // one line for the plan, then one per step with its estimated and, once
+    // the plan has been executed, actual row counts
+    public synchronized String explain() {
+        StringBuilder explain = new StringBuilder();
+        explain.append("QueryPlan cost=").append(round(cost))
+            .append(" estimated=").append(round(getEstimatedRows()))
+            .append(" actual=").append(actual(filters.isEmpty() ? actualAccessRows : actualRows[actualRows.length - 1]))
+            .append(partial ? " (partial)" : "")
+            .append('\n');
+
+        explain.append("  ").append(accessPath);
+        if (accessFilter != null) {
+            explain.append(' ').append(accessFilter.describe()).append(accessCached ? " (cached)" : " (build)");
+        }
+        explain.append(" estimated=").append(round(estimatedAccessRows))
+            .append(" actual=").append(actual(actualAccessRows))
+            .append('\n');
+
+        for (int i = 0; i < filters.size(); ++i) {
+            explain.append("  FILTER ").append(filters.get(i).describe())
+                .append(" estimated=").append(round(estimatedRows[i]))
+                .append(" actual=").append(actual(actualRows[i]))
+                .append('\n');
+        }
+        return explain.toString();
+    }
+
+    @Override
+    public String toString() {
+        return explain();
+    }
+
+    // the books the access path hands back, building its structure under the
+    // context first if it isn't cached. A full scan has nothing to build.
+    private QueryResult<List<Book>> candidates(QueryContext context) {
+        switch (accessPath) {
+            case AUTHOR_INDEX:
+                String author = ((BookQuery.AuthorIs) accessFilter).getAuthor();
+                return stats.indexByAuthor(context)
+                    .map(index -> index.getOrDefault(author, Collections.emptyList()));
+            case LANGUAGE_FILTER:
+                return stats.filterToLanguages(((BookQuery.LanguageIn) accessFilter).getLanguages(), context);
+            default:
+                return new QueryResult<>(stats.getBooks(), false, 0, 0, 0);
+        }
+    }
+
+    private String actual(long rows) {
+        return actualAccessRows < 0 ? "-" : String.valueOf(rows);
+    }
+
+    private static String round(double value) {
+        return String.valueOf(Math.round(value * 10) / 10.0);
+    }
+}
@@ -0,0 +1,102 @@
+package com.patientping;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+// Chooses how to answer a BookQuery. Every way of producing candidate books
+// is costed: a full scan touches every row, while the author index and the
+// language filter only hand back the rows they match, but have to be built
+// with a full scan first if they aren't already cached. The filters left over
+// are then ordered so the cheapest, most selective ones run first, and the
+// plan with the lowest total cost wins. Row estimates come from the column
+// statistics collected at load, assuming the filters are independent.
+public class QueryPlanner {
+    private final BookStats stats;
+
+    public QueryPlanner(BookStats stats) {
+        this.stats = stats;
+    }
+
+    public QueryPlan plan(BookQuery query) {
+        ColumnStatistics statistics = stats.getColumnStatistics();
+        List<BookQuery.Filter> filters = query.getFilters();
+
+        // a full scan is always possible
+        QueryPlan best = plan(statistics, QueryPlan.AccessPath.FULL_SCAN, null, false,
+            statistics.getRowCount(), statistics.getRowCount(), filters);
+
+        for (BookQuery.Filter filter : filters) {
+            QueryPlan candidate;
+            if (filter instanceof BookQuery.AuthorIs) {
+                boolean cached = stats.isAuthorIndexCached();
+                candidate = plan(statistics, QueryPlan.AccessPath.AUTHOR_INDEX, filter, cached,
+                    accessCost(statistics, filter, cached), filter.estimateRows(statistics), without(filters, filter));
+            }
+            else if (filter instanceof BookQuery.LanguageIn) {
+                boolean cached = stats.isLanguageFilterCached(((BookQuery.LanguageIn) filter).getLanguages());
+                candidate = plan(statistics, QueryPlan.AccessPath.LANGUAGE_FILTER, filter, cached,
+                    accessCost(statistics, filter, cached), filter.estimateRows(statistics), without(filters, filter));
+            }
+            else {
+                continue;
+            }
+
+            if (candidate.getCost() < best.getCost()) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    // reading the rows a cached structure hands back costs one per row.
+    // Building it first costs a full scan testing every row on top, and one
+    // more per row for storing it, so a full scan wins while the structure is
+    // cold unless the filter is by far the most selective one.
+    private static double accessCost(ColumnStatistics statistics, BookQuery.Filter filter, boolean cached) {
+        double rows = filter.estimateRows(statistics);
+        return cached ? rows : rows + statistics.getRowCount() * (1 + filter.cost());
+    }
+
+    private QueryPlan plan(ColumnStatistics statistics, QueryPlan.AccessPath accessPath,
+                           BookQuery.Filter accessFilter, boolean accessCached, double accessCost,
+                           double accessRows, List<BookQuery.Filter> filters) {
+        List<BookQuery.Filter> ordered = new ArrayList<>(filters);
+        ordered.sort(Comparator.comparingDouble(f -> rank(statistics, f)));
+
+        // each filter is tested against the rows that got through the ones
+        // before it, and lets through its selectivity of them
+        double cost = accessCost;
+        double rows = accessRows;
+        double[] estimatedRows = new double[ordered.size()];
+        for (int i = 0; i < ordered.size(); ++i) {
+            cost += rows * ordered.get(i).cost();
+            rows *= selectivity(statistics, ordered.get(i));
+            estimatedRows[i] = rows;
+        }
+
+        return new QueryPlan(stats, accessPath, accessFilter, accessCached, accessRows, ordered, estimatedRows, cost);
+    }
+
+    // the usual rank for ordering independent filters: the cost of a test
+    // divided by the fraction of rows it removes. Filters that remove nothing
+    // go last.
+    private static double rank(ColumnStatistics statistics, BookQuery.Filter filter) {
+        double removed = 1.0 - selectivity(statistics, filter);
+        return removed <= 0 ? Double.MAX_VALUE : filter.cost() / removed;
+    }
+
+    // the fraction of rows the filter lets through
+    private static double selectivity(ColumnStatistics statistics, BookQuery.Filter filter) {
+        if (statistics.getRowCount() == 0) {
+            return 1.0;
+        }
+        return Math.min(1.0, filter.estimateRows(statistics) / statistics.getRowCount());
+    }
+
+    private static List<BookQuery.Filter> without(List<BookQuery.Filter> filters, BookQuery.Filter filter) {
+        List<BookQuery.Filter> rest = new ArrayList<>(filters);
+        rest.remove(filter);
+        return rest;
+    }
+}
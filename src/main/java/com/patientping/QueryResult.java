@@ -0,0 +1,44 @@
+package com.patientping;
+
+import java.util.function.Function;
+
+import lombok.Getter;
+
+// The value a query produced along with how much work went into it. A
+// partial result was cut short by its deadline and only reflects the first
+// rowsScanned of totalRows rows, so averages and maximums in it are
+// approximations computed from that prefix.
+@Getter
+public class QueryResult<T> {
+    private final T value;
+    private final boolean partial;
+    private final long rowsScanned;
+    private final long totalRows;
+    private final long elapsedNanos;
+
+    public QueryResult(T value, boolean partial, long rowsScanned, long totalRows, long elapsedNanos) {
+        this.value = value;
+        this.partial = partial;
+        this.rowsScanned = rowsScanned;
+        this.totalRows = totalRows;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    // the same result with its value transformed
+    public <R> QueryResult<R> map(Function<T, R> transform) {
+        return new QueryResult<>(transform.apply(value), partial, rowsScanned, totalRows, elapsedNanos);
+    }
+
+    // run a further query on this result's value. The combined result adds up
+    // the work of both, and is partial if either of them was.
+    public <R> QueryResult<R> then(Function<T, QueryResult<R>> next) {
+        QueryResult<R> result = next.apply(value);
+        return new QueryResult<>(result.value, partial || result.partial, rowsScanned + result.rowsScanned,
+            totalRows + result.totalRows, elapsedNanos + result.elapsedNanos);
+    }
+
+    // the fraction of rows the result covers, 1.0 for a complete result
+    public double getCoverage() {
+        return totalRows == 0 ? 1.0 : (double) rowsScanned / totalRows;
+    }
+}
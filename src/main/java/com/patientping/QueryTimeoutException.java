@@ -0,0 +1,16 @@
+package com.patientping;
+
+// Thrown when a query runs past its deadline and its QueryContext doesn't
+// allow partial results.
+public class QueryTimeoutException extends RuntimeException {
+    private final long rowsScanned;
+
+    public QueryTimeoutException(long rowsScanned, long totalRows) {
+        super("Query deadline passed after scanning " + rowsScanned + " of " + totalRows + " rows");
+        this.rowsScanned = rowsScanned;
+    }
+
+    public long getRowsScanned() {
+        return rowsScanned;
+    }
+}
@@ -0,0 +1,39 @@
+package com.patientping;
+
+// The sum and count of star ratings for one author. Unlike an average,
+// totals computed over separate parts of the catalog can be merged, which is
+// what lets sharded queries combine their partial results. Immutable, since
+// the totals BookStats hands out are shared through its query cache.
+public class RatingTotal {
+    public static final RatingTotal EMPTY = new RatingTotal(0, 0);
+
+    private final double sum;
+    private final int count;
+
+    public RatingTotal(double sum, int count) {
+        this.sum = sum;
+        this.count = count;
+    }
+
+    // this total with one more rating
+    public RatingTotal add(double rating) {
+        return new RatingTotal(sum + rating, count + 1);
+    }
+
+    // this total combined with another
+    public RatingTotal merge(RatingTotal other) {
+        return new RatingTotal(sum + other.sum, count + other.count);
+    }
+
+    public double getSum() {
+        return sum;
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public double average() {
+        return count == 0 ? 0.0 : sum / count;
+    }
+}
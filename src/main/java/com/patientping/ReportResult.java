@@ -0,0 +1,29 @@
+package com.patientping;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import lombok.Getter;
+
+// The output of one report: named columns and rows of values for them. Values
+// are Strings, Integers, Floats or Doubles, which every output format can write.
+@Getter
+public class ReportResult {
+    private final String name;
+    private final List<String> columns;
+    private final List<List<Object>> rows = new ArrayList<>();
+
+    public ReportResult(String name, String... columns) {
+        this.name = name;
+        this.columns = Arrays.asList(columns);
+    }
+
+    public ReportResult addRow(Object... values) {
+        if (values.length != columns.size()) {
+            throw new IllegalArgumentException(
+                "Expected " + columns.size() + " values for report " + name + " but got " + values.length);
+        }
+        rows.add(Arrays.asList(values));
+        return this;
+    }
+}
@@ -0,0 +1,203 @@
+package com.patientping;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+// Runs report specs concurrently against one shared, already loaded
+// BookStats. The indexes, author totals and language filters, whole catalog
+// or per set of languages, come from the BookStats query cache, so thousands
+// of reports over the same data share them instead of each rebuilding its own.
+public class ReportRunner implements Closeable {
+    private final BookStats stats;
+    private final ExecutorService executor;
+
+    public ReportRunner(BookStats stats, int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.stats = stats;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "report-runner");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // start every report, the futures are in the same order as the specs so
+    // results can be written out in order while later reports still run
+    public List<Future<ReportResult>> submit(List<ReportSpec> specs) {
+        List<Future<ReportResult>> futures = new ArrayList<>();
+        for (ReportSpec spec : specs) {
+            futures.add(executor.submit(() -> run(spec)));
+        }
+        return futures;
+    }
+
+    public List<ReportResult> runAll(List<ReportSpec> specs) {
+        List<ReportResult> results = new ArrayList<>();
+        for (Future<ReportResult> future : submit(specs)) {
+            results.add(await(future));
+        }
+        return results;
+    }
+
+    public ReportResult run(ReportSpec spec) {
+        switch (spec.getMetric()) {
+            case BOOKS:
+                return new ReportResult(spec.getName(), "books")
+                    .addRow(books(spec).size());
+            case ENGLISH_BOOKS:
+                return new ReportResult(spec.getName(), "english_books")
+                    .addRow(stats.filterToEnglishBooks(books(spec)).size());
+            case MOST_BOOKS_BY_AUTHOR:
+                return mostBooksByAuthor(spec);
+            case HIGHEST_AVERAGE_AUTHORS:
+                return highestAverageAuthors(spec);
+            case HIGHEST_RATED_BOOKS:
+                return bookRows(spec, stats.findTopRatedBooks(books(spec), spec.getTop()));
+            case HIGHEST_RATIO_BOOKS:
+                return highestRatioBooks(spec);
+            case AUTHOR:
+                return author(spec);
+            default:
+                throw new IllegalArgumentException("Unsupported report metric: " + spec.getMetric());
+        }
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    public static ReportResult await(Future<ReportResult> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a report", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Report failed", e.getCause());
+        }
+    }
+
+    // the books the spec covers, every loaded book unless it filters by language
+    private List<Book> books(ReportSpec spec) {
+        return spec.getLanguages() == null ? stats.getBooks() : stats.filterToLanguages(spec.getLanguages());
+    }
+
+    private Map<String, List<Book>> booksByAuthor(ReportSpec spec) {
+        return spec.getLanguages() == null ? stats.indexByAuthor() : stats.indexByAuthorInLanguages(spec.getLanguages());
+    }
+
+    private ReportResult mostBooksByAuthor(ReportSpec spec) {
+        List<Map.Entry<String, List<Book>>> top = topK(
+            booksByAuthor(spec).entrySet(),
+            Comparator.comparingInt((Map.Entry<String, List<Book>> e) -> e.getValue().size()).reversed()
+                .thenComparing(e -> e.getKey()),
+            spec.getTop()
+        );
+
+        ReportResult result = new ReportResult(spec.getName(), "author", "books");
+        for (Map.Entry<String, List<Book>> entry : top) {
+            result.addRow(entry.getKey(), entry.getValue().size());
+        }
+        return result;
+    }
+
+    private ReportResult highestAverageAuthors(ReportSpec spec) {
+        Map<String, RatingTotal> totals = spec.getLanguages() == null
+            ? stats.ratingTotalsByAuthor()
+            : stats.ratingTotalsByAuthorInLanguages(spec.getLanguages());
+
+        List<Map.Entry<String, RatingTotal>> top = topK(
+            totals.entrySet(),
+            Comparator.comparingDouble((Map.Entry<String, RatingTotal> e) -> e.getValue().average()).reversed()
+                .thenComparing(e -> e.getKey()),
+            spec.getTop()
+        );
+
+        ReportResult result = new ReportResult(spec.getName(), "author", "average_rating", "books");
+        for (Map.Entry<String, RatingTotal> entry : top) {
+            result.addRow(entry.getKey(), entry.getValue().average(), entry.getValue().getCount());
+        }
+        return result;
+    }
+
+    // ranked the same way as BookStats.findHighestRatioBook, which skips
+    // books without enough reviews and books with no text reviews at all
+    private ReportResult highestRatioBooks(ReportSpec spec) {
+        List<Book> candidates = new ArrayList<>();
+        for (Book b : books(spec)) {
+            if ((b.getRatingCount() >= 25 || b.getTextReviewsCount() >= 25) && b.getTextReviewsCount() != 0) {
+                candidates.add(b);
+            }
+        }
+
+        List<Book> top = topK(
+            candidates,
+            Comparator.comparingDouble((Book b) -> b.ratingsReviewsRatio()).reversed().thenComparingInt(b -> b.getId()),
+            spec.getTop()
+        );
+
+        ReportResult result = new ReportResult(spec.getName(), "id", "title", "authors", "ratio");
+        for (Book b : top) {
+            result.addRow(b.getId(), b.getTitle(), b.getAuthors(), b.ratingsReviewsRatio());
+        }
+        return result;
+    }
+
+    // one author's best rated books, looked up in the shared author index
+    private ReportResult author(ReportSpec spec) {
+        List<Book> books = stats.indexByAuthor().get(spec.getAuthor());
+        if (books == null) {
+            books = Collections.emptyList();
+        }
+        if (spec.getLanguages() != null) {
+            books = stats.filterToLanguages(books, spec.getLanguages());
+        }
+
+        List<Book> top = topK(books, BookStats.BY_RATING_DESCENDING, spec.getTop());
+        return bookRows(spec, top);
+    }
+
+    private ReportResult bookRows(ReportSpec spec, List<Book> books) {
+        ReportResult result = new ReportResult(spec.getName(), "id", "title", "authors", "average_rating", "ratings_count");
+        for (Book b : books) {
+            result.addRow(b.getId(), b.getTitle(), b.getAuthors(), b.getAverageRating(), b.getRatingCount());
+        }
+        return result;
+    }
+
+    // the first k items in order, using a bounded heap rather than sorting everything
+    private static <T> List<T> topK(Iterable<T> items, Comparator<T> order, int k) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+
+        PriorityQueue<T> best = new PriorityQueue<>(k + 1, order.reversed());
+        for (T item : items) {
+            best.add(item);
+            if (best.size() > k) {
+                best.poll();
+            }
+        }
+
+        List<T> top = new ArrayList<>(best);
+        top.sort(order);
+        return top;
+    }
+}
@@ -0,0 +1,112 @@
+package com.patientping;
+
+import java.util.ArrayList;
+import java.util.List;
+import lombok.Builder;
+import lombok.Getter;
+
+// What one report in a batch should compute. Specs are written as a metric
+// followed by optional semicolon separated settings, for example
+//
+//   most-books-by-author;language=eng,en-US;top=5
+//   author;author=Gene Wolfe;name=wolfe
+//
+// Settings are name (what the report is called in the output, defaults to
+// the spec itself), language (comma separated language codes to restrict the
+// books to), author (required by the author metric) and top (how many rows
+// ranked metrics return, 10 by default).
+@Builder
+@Getter
+public class ReportSpec {
+    private static final int DEFAULT_TOP = 10;
+
+    public enum Metric {
+        BOOKS("books"),
+        ENGLISH_BOOKS("english-books"),
+        MOST_BOOKS_BY_AUTHOR("most-books-by-author"),
+        HIGHEST_AVERAGE_AUTHORS("highest-average-authors"),
+        HIGHEST_RATED_BOOKS("highest-rated-books"),
+        HIGHEST_RATIO_BOOKS("highest-ratio-books"),
+        AUTHOR("author");
+
+        private final String specName;
+
+        Metric(String specName) {
+            this.specName = specName;
+        }
+
+        public String getSpecName() {
+            return specName;
+        }
+
+        public static Metric fromSpecName(String specName) {
+            for (Metric metric : values()) {
+                if (metric.specName.equals(specName)) {
+                    return metric;
+                }
+            }
+            throw new IllegalArgumentException("Unknown report metric: " + specName);
+        }
+    }
+
+    private final String name;
+    private final Metric metric;
+    // null means books in every language
+    private final List<String> languages;
+    private final String author;
+    private final int top;
+
+    public static ReportSpec parse(String spec) {
+        String[] parts = spec.trim().split(";");
+
+        ReportSpecBuilder builder = ReportSpec.builder()
+            .name(spec.trim())
+            .metric(Metric.fromSpecName(parts[0].trim()))
+            .top(DEFAULT_TOP);
+
+        for (int i = 1; i < parts.length; ++i) {
+            String part = parts[i].trim();
+            int equals = part.indexOf('=');
+            if (equals < 0) {
+                throw new IllegalArgumentException("Expected key=value in report spec: " + part);
+            }
+            String key = part.substring(0, equals).trim();
+            String value = part.substring(equals + 1).trim();
+
+            switch (key) {
+                case "name":
+                    builder.name(value);
+                    break;
+                case "language":
+                    List<String> languages = new ArrayList<>();
+                    for (String language : value.split(",")) {
+                        languages.add(language.trim());
+                    }
+                    builder.languages(languages);
+                    break;
+                case "author":
+                    builder.author(value);
+                    break;
+                case "top":
+                    builder.top(Integer.parseInt(value));
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown report setting: " + key);
+            }
+        }
+
+        ReportSpec parsed = builder.build();
+        if (parsed.getMetric() == Metric.AUTHOR && parsed.getAuthor() == null) {
+            throw new IllegalArgumentException("The author metric needs an author: " + spec);
+        }
+        return parsed;
+    }
+
+    public static List<ReportSpec> parseAll(String... specs) {
+        List<ReportSpec> parsed = new ArrayList<>();
+        for (String spec : specs) {
+            parsed.add(parse(spec));
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,253 @@
+package com.patientping;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+// Writes report results through a buffer in one of three formats:
+//
+//   json    one JSON object per report per line, rows as objects keyed by column
+//   csv     a header row then the data rows for each report, prefixed by the report name
+//   binary  a DataOutputStream encoding with a type tag before every value
+//
+// Values are written with String.valueOf rather than String.format, which is
+// far cheaper when a batch produces thousands of reports.
+public abstract class ReportWriter implements Closeable, Flushable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    // the formats create() accepts
+    public static final List<String> FORMATS = Collections.unmodifiableList(Arrays.asList("json", "csv", "binary"));
+
+    public static ReportWriter create(String format, OutputStream out) {
+        switch (format) {
+            case "json":
+                return new JsonReportWriter(out);
+            case "csv":
+                return new CsvReportWriter(out);
+            case "binary":
+                return new BinaryReportWriter(out);
+            default:
+                throw new IllegalArgumentException("Unknown report format: " + format);
+        }
+    }
+
+    public abstract void write(ReportResult result) throws IOException;
+
+    private abstract static class TextReportWriter extends ReportWriter {
+        protected final Writer out;
+
+        TextReportWriter(OutputStream out) {
+            this.out = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), BUFFER_SIZE);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static class JsonReportWriter extends TextReportWriter {
+        JsonReportWriter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(ReportResult result) throws IOException {
+            out.write("{\"report\":");
+            writeString(result.getName());
+            out.write(",\"rows\":[");
+
+            List<String> columns = result.getColumns();
+            boolean firstRow = true;
+            for (List<Object> row : result.getRows()) {
+                if (!firstRow) {
+                    out.write(',');
+                }
+                firstRow = false;
+
+                out.write('{');
+                for (int i = 0; i < columns.size(); ++i) {
+                    if (i > 0) {
+                        out.write(',');
+                    }
+                    writeString(columns.get(i));
+                    out.write(':');
+                    writeValue(row.get(i));
+                }
+                out.write('}');
+            }
+            out.write("]}\n");
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.write("null");
+            }
+            else if (value instanceof Number) {
+                double number = ((Number) value).doubleValue();
+                // JSON has no NaN or infinity
+                out.write(Double.isNaN(number) || Double.isInfinite(number) ? "null" : String.valueOf(value));
+            }
+            else {
+                writeString(value.toString());
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            out.write('"');
+            for (int i = 0; i < value.length(); ++i) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        out.write("\\\"");
+                        break;
+                    case '\\':
+                        out.write("\\\\");
+                        break;
+                    case '\n':
+                        out.write("\\n");
+                        break;
+                    case '\r':
+                        out.write("\\r");
+                        break;
+                    case '\t':
+                        out.write("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            out.write("\\u00");
+                            out.write(Character.forDigit(c >> 4, 16));
+                            out.write(Character.forDigit(c & 0xF, 16));
+                        }
+                        else {
+                            out.write(c);
+                        }
+                }
+            }
+            out.write('"');
+        }
+    }
+
+    private static class CsvReportWriter extends TextReportWriter {
+        CsvReportWriter(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(ReportResult result) throws IOException {
+            out.write("report");
+            for (String column : result.getColumns()) {
+                out.write(',');
+                writeField(column);
+            }
+            out.write('\n');
+
+            for (List<Object> row : result.getRows()) {
+                writeField(result.getName());
+                for (Object value : row) {
+                    out.write(',');
+                    writeField(value == null ? "" : String.valueOf(value));
+                }
+                out.write('\n');
+            }
+        }
+
+        // quote fields that would otherwise break the row apart
+        private void writeField(String value) throws IOException {
+            if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+                out.write(value);
+                return;
+            }
+            out.write('"');
+            out.write(value.replace("\"", "\"\""));
+            out.write('"');
+        }
+    }
+
+    // [int magic] then for each report:
+    // [utf name][int columns][utf column...][int rows] and for each row a
+    // [byte tag][value] per column, see the tag constants
+    private static class BinaryReportWriter extends ReportWriter {
+        static final int MAGIC = 0x42525054;
+        static final byte NULL = 0;
+        static final byte STRING = 1;
+        static final byte INT = 2;
+        static final byte FLOAT = 3;
+        static final byte DOUBLE = 4;
+
+        private final DataOutputStream out;
+        private boolean wroteHeader;
+
+        BinaryReportWriter(OutputStream out) {
+            this.out = new DataOutputStream(new BufferedOutputStream(out, BUFFER_SIZE));
+        }
+
+        @Override
+        public void write(ReportResult result) throws IOException {
+            if (!wroteHeader) {
+                out.writeInt(MAGIC);
+                wroteHeader = true;
+            }
+
+            out.writeUTF(result.getName());
+            out.writeInt(result.getColumns().size());
+            for (String column : result.getColumns()) {
+                out.writeUTF(column);
+            }
+
+            out.writeInt(result.getRows().size());
+            for (List<Object> row : result.getRows()) {
+                for (Object value : row) {
+                    writeValue(value);
+                }
+            }
+        }
+
+        private void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(NULL);
+            }
+            else if (value instanceof Integer) {
+                out.writeByte(INT);
+                out.writeInt((Integer) value);
+            }
+            else if (value instanceof Float) {
+                out.writeByte(FLOAT);
+                out.writeFloat((Float) value);
+            }
+            else if (value instanceof Number) {
+                out.writeByte(DOUBLE);
+                out.writeDouble(((Number) value).doubleValue());
+            }
+            else {
+                out.writeByte(STRING);
+                out.writeUTF(value.toString());
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+}
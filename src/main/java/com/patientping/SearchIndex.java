@@ -0,0 +1,384 @@
+package com.patientping;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.IntStream;
+
+// An in-memory inverted index over the title and authors of a list of books.
+// Every token maps to a posting list of row ids (positions in the book list)
+// stored as a sorted int array, and the tokens themselves are kept in a sorted
+// array so prefix lookups are a binary search followed by a short scan.
+public class SearchIndex {
+    // written at the start of a persisted index so we can reject foreign files
+    private static final int MAGIC = 0x42534958;
+    private static final int FORMAT_VERSION = 1;
+
+    // an exact token match counts for more than a prefix match when ranking
+    private static final int EXACT_MATCH_SCORE = 2;
+    private static final int PREFIX_MATCH_SCORE = 1;
+
+    private final List<Book> books;
+    private final String[] terms;
+    private final int[][] postings;
+
+    private SearchIndex(List<Book> books, String[] terms, int[][] postings) {
+        this.books = books;
+        this.terms = terms;
+        this.postings = postings;
+    }
+
+    public static SearchIndex build(List<Book> books) {
+        int rows = books.size();
+
+        // tokenizing is the expensive part of the build, so do it for every row in parallel
+        String[][] tokensByRow = new String[rows][];
+        IntStream.range(0, rows).parallel().forEach(row -> tokensByRow[row] = tokenize(books.get(row)));
+
+        // first pass: assign every distinct term an id and count how many rows contain it
+        Map<String, Integer> termIds = new HashMap<>();
+        int[] counts = new int[16];
+        for (String[] tokens : tokensByRow) {
+            for (String token : tokens) {
+                Integer termId = termIds.get(token);
+                if (termId == null) {
+                    termId = termIds.size();
+                    termIds.put(token, termId);
+                    if (termId == counts.length) {
+                        counts = Arrays.copyOf(counts, counts.length * 2);
+                    }
+                }
+                counts[termId]++;
+            }
+        }
+
+        // second pass: fill the posting lists, walking rows in order keeps each list sorted
+        int[][] postingsById = new int[termIds.size()][];
+        for (int termId = 0; termId < postingsById.length; ++termId) {
+            postingsById[termId] = new int[counts[termId]];
+        }
+        int[] filled = new int[termIds.size()];
+        for (int row = 0; row < rows; ++row) {
+            for (String token : tokensByRow[row]) {
+                int termId = termIds.get(token);
+                postingsById[termId][filled[termId]++] = row;
+            }
+        }
+
+        // sort the terms so prefix searches can binary search into the dictionary
+        String[] terms = termIds.keySet().toArray(new String[0]);
+        Arrays.sort(terms);
+        int[][] postings = new int[terms.length][];
+        for (int i = 0; i < terms.length; ++i) {
+            postings[i] = postingsById[termIds.get(terms[i])];
+        }
+
+        return new SearchIndex(books, terms, postings);
+    }
+
+    public int getTermCount() {
+        return terms.length;
+    }
+
+    public List<Book> search(String query, int limit) {
+        return search(query, null, limit);
+    }
+
+    // find books whose title or authors contain every query token either as a
+    // whole token or as a prefix of one. Results are ranked by how many tokens
+    // matched exactly, then by rating count so popular books come first. A
+    // null or empty languages collection means books in any language.
+    public List<Book> search(String query, Collection<String> languages, int limit) {
+        return search(query, languages, limit, Collections.emptySet(), Collections.emptyList());
+    }
+
+    // search the indexed books as they are now rather than as they were built.
+    // Indexed books whose id is in staleIds have since been replaced or deleted
+    // and are skipped, and the added books, which aren't in the index, are
+    // matched one at a time. Both are expected to be small.
+    public List<Book> search(String query, Collection<String> languages, int limit, Set<Integer> staleIds,
+                             Collection<Book> added) {
+        String[] queryTokens = tokenize(query);
+        if (queryTokens.length == 0 || limit <= 0) {
+            return new ArrayList<>();
+        }
+
+        // the rows matching every token so far and their scores, narrowed down
+        // one token at a time. Only the posting lists of matching terms are
+        // touched, so the cost follows the number of matches, not the catalog.
+        Matches candidates = matches(queryTokens[0]);
+        for (int q = 1; q < queryTokens.length && candidates.count > 0; ++q) {
+            candidates = candidates.intersect(matches(queryTokens[q]));
+        }
+
+        List<Hit> hits = new ArrayList<>();
+        for (int i = 0; i < candidates.count; ++i) {
+            Book b = books.get(candidates.rows[i]);
+            if (!staleIds.isEmpty() && staleIds.contains(b.getId())) {
+                continue;
+            }
+            if (inLanguages(b, languages)) {
+                hits.add(new Hit(b, candidates.scores[i], candidates.rows[i]));
+            }
+        }
+
+        // added books rank after indexed ones with the same score and ratings
+        int order = books.size();
+        for (Book b : added) {
+            int score = score(b, queryTokens);
+            if (score > 0 && inLanguages(b, languages)) {
+                hits.add(new Hit(b, score, order));
+            }
+            ++order;
+        }
+
+        hits.sort((x, y) -> {
+            if (x.score != y.score) {
+                return Integer.compare(y.score, x.score);
+            }
+            int byRatings = Integer.compare(y.book.getRatingCount(), x.book.getRatingCount());
+            return byRatings != 0 ? byRatings : Integer.compare(x.order, y.order);
+        });
+
+        List<Book> matches = new ArrayList<>();
+        for (int i = 0; i < hits.size() && i < limit; ++i) {
+            matches.add(hits.get(i).book);
+        }
+        return matches;
+    }
+
+    private static boolean inLanguages(Book book, Collection<String> languages) {
+        return languages == null || languages.isEmpty() || languages.contains(book.getLanguage());
+    }
+
+    // how a book that isn't in the index scores against the query, the same way
+    // an indexed one would, or 0 if some query token doesn't match it
+    private static int score(Book book, String[] queryTokens) {
+        String[] tokens = tokenize(book);
+        int total = 0;
+        for (String queryToken : queryTokens) {
+            int best = 0;
+            for (String token : tokens) {
+                if (token.equals(queryToken)) {
+                    best = EXACT_MATCH_SCORE;
+                    break;
+                }
+                if (token.startsWith(queryToken)) {
+                    best = PREFIX_MATCH_SCORE;
+                }
+            }
+            if (best == 0) {
+                return 0;
+            }
+            total += best;
+        }
+        return total;
+    }
+
+    // a matching book, its score, and where it ranks among equals
+    private static class Hit {
+        final Book book;
+        final int score;
+        final int order;
+
+        Hit(Book book, int score, int order) {
+            this.book = book;
+            this.score = score;
+            this.order = order;
+        }
+    }
+
+    // rows in ascending order with the score each one has so far
+    private static class Matches {
+        final int[] rows;
+        final int[] scores;
+        final int count;
+
+        Matches(int[] rows, int[] scores, int count) {
+            this.rows = rows;
+            this.scores = scores;
+            this.count = count;
+        }
+
+        // the rows in both, with their scores added up, by merging the two sorted lists
+        Matches intersect(Matches other) {
+            int capacity = Math.min(count, other.count);
+            int[] both = new int[capacity];
+            int[] summed = new int[capacity];
+            int n = 0;
+            int i = 0;
+            int j = 0;
+            while (i < count && j < other.count) {
+                if (rows[i] < other.rows[j]) {
+                    ++i;
+                }
+                else if (rows[i] > other.rows[j]) {
+                    ++j;
+                }
+                else {
+                    both[n] = rows[i];
+                    summed[n++] = scores[i++] + other.scores[j++];
+                }
+            }
+            return new Matches(both, summed, n);
+        }
+    }
+
+    // the rows containing a term that is the token or starts with it. A row can
+    // match through several terms, it only keeps its best score.
+    private Matches matches(String token) {
+        int first = firstTermWithPrefix(token);
+        int last = first;
+        int total = 0;
+        while (last < terms.length && terms[last].startsWith(token)) {
+            total += postings[last++].length;
+        }
+
+        // row in the high half, score in the low, so sorting groups each row's
+        // matches together with its best score last
+        long[] hits = new long[total];
+        int n = 0;
+        for (int t = first; t < last; ++t) {
+            int score = terms[t].length() == token.length() ? EXACT_MATCH_SCORE : PREFIX_MATCH_SCORE;
+            for (int row : postings[t]) {
+                hits[n++] = ((long) row << 32) | score;
+            }
+        }
+        // a single term's posting list is already sorted
+        if (last - first > 1) {
+            Arrays.sort(hits);
+        }
+
+        int[] rows = new int[total];
+        int[] scores = new int[total];
+        int count = 0;
+        for (int i = 0; i < total; ++i) {
+            if (i + 1 < total && hits[i + 1] >>> 32 == hits[i] >>> 32) {
+                continue;
+            }
+            rows[count] = (int) (hits[i] >>> 32);
+            scores[count++] = (int) hits[i];
+        }
+        return new Matches(rows, scores, count);
+    }
+
+    // write the dictionary and posting lists. Posting lists are written as the
+    // gaps between row ids in variable length ints, which keeps them compact
+    // since neighbouring rows tend to share terms.
+    public void save(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeInt(books.size());
+        data.writeInt(terms.length);
+
+        for (int t = 0; t < terms.length; ++t) {
+            data.writeUTF(terms[t]);
+            writeVarInt(data, postings[t].length);
+            int previous = 0;
+            for (int row : postings[t]) {
+                writeVarInt(data, row - previous);
+                previous = row;
+            }
+        }
+        data.flush();
+    }
+
+    // read an index written by save(). The books must be the same list, in the
+    // same order, that the index was built from since postings refer to rows.
+    public static SearchIndex load(InputStream in, List<Book> books) throws IOException {
+        DataInputStream data = new DataInputStream(in);
+        if (data.readInt() != MAGIC) {
+            throw new IOException("Not a search index");
+        }
+        int version = data.readInt();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported search index version " + version);
+        }
+        int rows = data.readInt();
+        if (rows != books.size()) {
+            throw new IOException("Search index was built for " + rows + " books but " + books.size() + " are loaded");
+        }
+
+        String[] terms = new String[data.readInt()];
+        int[][] postings = new int[terms.length][];
+        for (int t = 0; t < terms.length; ++t) {
+            terms[t] = data.readUTF();
+            int[] rowIds = new int[readVarInt(data)];
+            int previous = 0;
+            for (int i = 0; i < rowIds.length; ++i) {
+                previous += readVarInt(data);
+                rowIds[i] = previous;
+            }
+            postings[t] = rowIds;
+        }
+
+        return new SearchIndex(books, terms, postings);
+    }
+
+    // lower case the text, the same way whatever the default locale, and split it on anything that isn't a letter or digit
+    static String[] tokenize(String text) {
+        if (text == null) {
+            return new String[0];
+        }
+
+        List<String> tokens = new ArrayList<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); ++i) {
+            boolean tokenChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (tokenChar && start < 0) {
+                start = i;
+            }
+            else if (!tokenChar && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens.toArray(new String[0]);
+    }
+
+    // the distinct tokens of a book's title and authors
+    private static String[] tokenize(Book book) {
+        Set<String> tokens = new LinkedHashSet<>();
+        tokens.addAll(Arrays.asList(tokenize(book.getTitle())));
+        tokens.addAll(Arrays.asList(tokenize(book.getAuthors())));
+        return tokens.toArray(new String[0]);
+    }
+
+    private int firstTermWithPrefix(String prefix) {
+        int index = Arrays.binarySearch(terms, prefix);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed variable length int");
+    }
+}
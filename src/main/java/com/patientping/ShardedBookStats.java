@@ -0,0 +1,224 @@
+package com.patientping;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+// Splits the catalog across several BookStats shards by hashing each book's id.
+// Every shard owns its own books, indexes and cached aggregates, and queries
+// run scatter-gather: each shard answers in parallel with a partial result
+// (counts, rating totals, its own top k) which is merged here. Shards only
+// ever hand back those partial results, never their internal indexes, so the
+// same merge logic would work with shards living on other nodes.
+public class ShardedBookStats implements Closeable {
+    private final BookStats[] shards;
+    private final ExecutorService executor;
+
+    public ShardedBookStats(int shardCount) {
+        if (shardCount <= 0) {
+            throw new IllegalArgumentException("shardCount must be positive: " + shardCount);
+        }
+
+        shards = new BookStats[shardCount];
+        for (int i = 0; i < shardCount; ++i) {
+            shards[i] = new BookStats();
+        }
+
+        // daemon threads so a forgotten close() doesn't keep the jvm alive
+        executor = Executors.newFixedThreadPool(shardCount, runnable -> {
+            Thread thread = new Thread(runnable, "book-stats-shard");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    public BookStats getShard(int shard) {
+        return shards[shard];
+    }
+
+    // which shard owns the book with this id. The id is mixed first so runs
+    // of sequential ids don't stripe across shards in lockstep with anything
+    // else keyed the same way.
+    public static int shardFor(int id, int shardCount) {
+        int hash = id * 0x9E3779B9;
+        hash ^= hash >>> 16;
+        return Math.floorMod(hash, shardCount);
+    }
+
+    public void loadCsv(InputStream in) throws IOException {
+        loadBooks(BookStats.readCsv(in));
+    }
+
+    // partition the books by id then let every shard build its indexes in parallel
+    public void loadBooks(List<Book> books) {
+        List<List<Book>> partitions = new ArrayList<>();
+        for (int i = 0; i < shards.length; ++i) {
+            partitions.add(new ArrayList<>());
+        }
+        for (Book b : books) {
+            partitions.get(shardFor(b.getId(), shards.length)).add(b);
+        }
+
+        List<Future<?>> loads = new ArrayList<>();
+        for (int i = 0; i < shards.length; ++i) {
+            BookStats shard = shards[i];
+            List<Book> partition = partitions.get(i);
+            loads.add(executor.submit(() -> shard.loadBooks(partition)));
+        }
+        for (Future<?> load : loads) {
+            await(load);
+        }
+    }
+
+    // updates only touch the shard that owns the id
+    public void upsert(Book book) {
+        shards[shardFor(book.getId(), shards.length)].upsert(book);
+    }
+
+    public boolean delete(int id) {
+        return shards[shardFor(id, shards.length)].delete(id);
+    }
+
+    public int countBooks() {
+        int total = 0;
+        for (List<Book> books : scatter(shard -> shard.getBooks())) {
+            total += books.size();
+        }
+        return total;
+    }
+
+    public int countEnglishBooks() {
+        int total = 0;
+        for (List<Book> englishBooks : scatter(shard -> shard.filterToEnglishBooks())) {
+            total += englishBooks.size();
+        }
+        return total;
+    }
+
+    // an author's books can land on any shard, so sum each shard's per author
+    // counts before picking the author with the most
+    public Map.Entry<String, Integer> findMostBooksByAuthor() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (Map<String, Integer> partial : scatter(shard -> shard.countBooksByAuthor())) {
+            for (Map.Entry<String, Integer> entry : partial.entrySet()) {
+                counts.merge(entry.getKey(), entry.getValue(), Integer::sum);
+            }
+        }
+
+        String mostAuthor = null;
+        int mostCount = 0;
+        for (Map.Entry<String, Integer> entry : counts.entrySet()) {
+            if (isBetter(entry.getValue(), entry.getKey(), mostCount, mostAuthor)) {
+                mostCount = entry.getValue();
+                mostAuthor = entry.getKey();
+            }
+        }
+
+        return mostAuthor != null ? new AbstractMap.SimpleEntry<>(mostAuthor, mostCount) : null;
+    }
+
+    // averages can't be merged, so shards return rating sums and counts instead
+    public Map.Entry<String, Double> findAuthorWithHighestAverageRating() {
+        Map<String, RatingTotal> totals = new HashMap<>();
+        for (Map<String, RatingTotal> partial : scatter(shard -> shard.ratingTotalsByAuthor())) {
+            for (Map.Entry<String, RatingTotal> entry : partial.entrySet()) {
+                totals.merge(entry.getKey(), entry.getValue(), RatingTotal::merge);
+            }
+        }
+
+        String bestAuthor = null;
+        double highestAverage = 0.0;
+        for (Map.Entry<String, RatingTotal> entry : totals.entrySet()) {
+            double average = entry.getValue().average();
+            if (isBetter(average, entry.getKey(), highestAverage, bestAuthor)) {
+                highestAverage = average;
+                bestAuthor = entry.getKey();
+            }
+        }
+
+        return bestAuthor != null ? new AbstractMap.SimpleEntry<>(bestAuthor, highestAverage) : null;
+    }
+
+    public Book findHighestRatedBook() {
+        List<Book> top = findTopRatedBooks(1);
+        return top.isEmpty() ? null : top.get(0);
+    }
+
+    public Book findHighestRatioBook() {
+        Book highestRatioBook = null;
+        for (Book b : scatter(shard -> shard.findHighestRatioBook())) {
+            if (b != null && (highestRatioBook == null || b.ratingsReviewsRatio() > highestRatioBook.ratingsReviewsRatio())) {
+                highestRatioBook = b;
+            }
+        }
+        return highestRatioBook;
+    }
+
+    // the global top k is always within the union of every shard's top k
+    public List<Book> findTopRatedBooks(int k) {
+        List<Book> candidates = new ArrayList<>();
+        for (List<Book> partial : scatter(shard -> shard.findTopRatedBooks(k))) {
+            candidates.addAll(partial);
+        }
+        candidates.sort(BookStats.BY_RATING_DESCENDING);
+        return new ArrayList<>(candidates.subList(0, Math.min(k, candidates.size())));
+    }
+
+    @Override
+    public void close() {
+        executor.shutdown();
+    }
+
+    // run the query against every shard in parallel and collect the partial results in shard order
+    private <T> List<T> scatter(Function<BookStats, T> query) {
+        List<Future<T>> futures = new ArrayList<>();
+        for (BookStats shard : shards) {
+            futures.add(executor.submit(() -> query.apply(shard)));
+        }
+
+        List<T> results = new ArrayList<>();
+        for (Future<T> future : futures) {
+            results.add(await(future));
+        }
+        return results;
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted waiting for a shard", e);
+        }
+        catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException("Shard query failed", e.getCause());
+        }
+    }
+
+    // higher values win, ties go to the alphabetically first author so the
+    // answer doesn't depend on how the books happen to be sharded
+    private static boolean isBetter(double value, String author, double bestValue, String bestAuthor) {
+        if (bestAuthor == null) {
+            return value > bestValue;
+        }
+        return value > bestValue || (value == bestValue && author.compareTo(bestAuthor) < 0);
+    }
+}
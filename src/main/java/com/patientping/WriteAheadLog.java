@@ -0,0 +1,252 @@
+package com.patientping;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+// An append only log of catalog updates. Each record is written as
+//
+//   [int payload length][long crc32 of payload][payload]
+//
+// where the payload is an operation byte followed by either a whole book
+// (upsert) or a book id (delete). Every record is written to the file before
+// the append returns, so once an update has been acknowledged killing the
+// process can't lose it. Only the fsync is batched: it happens once every
+// syncEvery records, at most maxSyncDelayMillis after an unsynced record was
+// written, or when sync() is called, so many updates share the cost of one
+// fsync. Losing power can lose at most the records since the last fsync, and
+// a record torn by a crash fails its checksum and ends the replay instead of
+// corrupting the catalog. A write that fails part way through a record is cut
+// back off the file before the append throws, so it can't end the replay
+// early and hide the records appended after it. If it can't be cut off, the
+// log refuses every further append.
+public class WriteAheadLog implements Closeable {
+    private static final byte UPSERT = 1;
+    private static final byte DELETE = 2;
+
+    // no single record comes anywhere near this, a bigger length means a torn or corrupt record
+    private static final int MAX_RECORD_LENGTH = 1 << 20;
+    // the record length and checksum written before each payload
+    private static final int HEADER_LENGTH = 4 + 8;
+
+    public static final long DEFAULT_MAX_SYNC_DELAY_MILLIS = 200;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final int syncEvery;
+    // fsyncs records that have waited maxSyncDelayMillis, however slowly they arrive
+    private final ScheduledExecutorService syncTimer;
+
+    // reused to serialize each record, the header is filled in once the payload's checksum is known
+    private final ByteArrayOutputStream recordBuffer = new ByteArrayOutputStream();
+    private final DataOutputStream record = new DataOutputStream(recordBuffer);
+    private final CRC32 crc = new CRC32();
+
+    private int unsyncedRecords;
+    // a timed fsync that failed, or a torn record that couldn't be cut off,
+    // reported by every later append or sync
+    private IOException failure;
+
+    private WriteAheadLog(Path path, FileChannel channel, int syncEvery, long maxSyncDelayMillis) {
+        this.path = path;
+        this.channel = channel;
+        this.syncEvery = syncEvery;
+        this.syncTimer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "wal-sync");
+            thread.setDaemon(true);
+            return thread;
+        });
+        syncTimer.scheduleWithFixedDelay(this::timedSync, maxSyncDelayMillis, maxSyncDelayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public static WriteAheadLog open(Path path, int syncEvery, BookStats stats) throws IOException {
+        return open(path, syncEvery, DEFAULT_MAX_SYNC_DELAY_MILLIS, stats);
+    }
+
+    // replay any existing log into the stats, then open it for appending. A torn
+    // record at the end is cut off so new records aren't written after garbage.
+    public static WriteAheadLog open(Path path, int syncEvery, long maxSyncDelayMillis, BookStats stats)
+            throws IOException {
+        if (syncEvery <= 0) {
+            throw new IllegalArgumentException("syncEvery must be positive: " + syncEvery);
+        }
+        if (maxSyncDelayMillis <= 0) {
+            throw new IllegalArgumentException("maxSyncDelayMillis must be positive: " + maxSyncDelayMillis);
+        }
+
+        long validLength = replay(path, stats);
+
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        channel.truncate(validLength);
+        channel.position(validLength);
+        return new WriteAheadLog(path, channel, syncEvery, maxSyncDelayMillis);
+    }
+
+    // apply every intact record of the log at path to the stats, in order.
+    // Returns the length of the intact prefix of the file.
+    public static long replay(Path path, BookStats stats) throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+
+        long validLength = 0;
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                byte[] payload;
+                long checksum;
+                try {
+                    int length = in.readInt();
+                    if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                        break;
+                    }
+                    checksum = in.readLong();
+                    payload = new byte[length];
+                    in.readFully(payload);
+                }
+                catch (EOFException e) {
+                    break;
+                }
+
+                crc.reset();
+                crc.update(payload, 0, payload.length);
+                if (crc.getValue() != checksum) {
+                    break;
+                }
+
+                apply(payload, stats);
+                validLength += HEADER_LENGTH + payload.length;
+            }
+        }
+        return validLength;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public synchronized void appendUpsert(Book book) throws IOException {
+        startRecord();
+        record.writeByte(UPSERT);
+        BookCodec.write(record, book);
+        appendRecord();
+    }
+
+    public synchronized void appendDelete(int id) throws IOException {
+        startRecord();
+        record.writeByte(DELETE);
+        record.writeInt(id);
+        appendRecord();
+    }
+
+    // force every record written so far to disk
+    public synchronized void sync() throws IOException {
+        throwFailure();
+        channel.force(false);
+        unsyncedRecords = 0;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        syncTimer.shutdownNow();
+        try {
+            if (channel.isOpen()) {
+                sync();
+            }
+        }
+        finally {
+            channel.close();
+        }
+    }
+
+    private synchronized void timedSync() {
+        if (unsyncedRecords == 0 || !channel.isOpen() || failure != null) {
+            return;
+        }
+        try {
+            sync();
+        }
+        catch (IOException e) {
+            failure = e;
+        }
+    }
+
+    private void throwFailure() throws IOException {
+        if (failure != null) {
+            throw new IOException("An earlier write or fsync of " + path + " failed", failure);
+        }
+    }
+
+    private void startRecord() throws IOException {
+        recordBuffer.reset();
+        // room for the header, filled in by appendRecord
+        record.writeInt(0);
+        record.writeLong(0);
+    }
+
+    // write the whole record to the file in one go, so it's in the page cache
+    // and survives the process dying even before it's fsynced
+    private void appendRecord() throws IOException {
+        throwFailure();
+
+        byte[] bytes = recordBuffer.toByteArray();
+        int length = bytes.length - HEADER_LENGTH;
+        crc.reset();
+        crc.update(bytes, HEADER_LENGTH, length);
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.putInt(0, length);
+        buffer.putLong(4, crc.getValue());
+        long start = channel.position();
+        try {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        catch (IOException e) {
+            // out of space or an io error part way through, cut off whatever
+            // of the record made it so the next one starts where it would have
+            try {
+                channel.truncate(start);
+                channel.position(start);
+            }
+            catch (IOException truncateFailure) {
+                e.addSuppressed(truncateFailure);
+                failure = e;
+            }
+            throw e;
+        }
+
+        if (++unsyncedRecords >= syncEvery) {
+            sync();
+        }
+    }
+
+    private static void apply(byte[] payload, BookStats stats) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        byte operation = in.readByte();
+        if (operation == UPSERT) {
+            stats.upsert(BookCodec.read(in));
+        }
+        else if (operation == DELETE) {
+            stats.delete(in.readInt());
+        }
+        else {
+            throw new IOException("Unknown log operation " + operation);
+        }
+    }
+}
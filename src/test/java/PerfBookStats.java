@@ -0,0 +1,191 @@
+import com.patientping.Book;
+import com.patientping.BookStats;
+import com.patientping.CoAuthorGraph;
+import com.patientping.ColumnStatistics;
+import com.patientping.SearchIndex;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+// Performance budgets for loading a large catalog, run with mvn test -Pperf.
+// Allocation is counted per thread by the JVM, so the byte counts are exact
+// rather than sampled and the budgets can be tight enough that a change which
+// doubles the garbage made per row fails. Retained heap is measured after
+// full collections, which the perf profile makes deterministic by running the
+// tests on the serial collector. Timings are the best of a few runs and their
+// budgets are loose, they are there to catch an index build going quadratic.
+public class PerfBookStats {
+    private static final int ROWS = 200000;
+
+    // from java 9 strings of latin-1 text store a byte per character rather
+    // than two, so the byte budgets for text heavy work depend on the jvm. Each
+    // is about one and a half times what was measured on it.
+    private static final boolean COMPACT_STRINGS = !System.getProperty("java.specification.version").startsWith("1.");
+
+    private static final String[] WORDS = {
+        "the", "of", "and", "a", "night", "war", "house", "river", "harry", "potter", "stone", "history",
+        "guide", "complete", "stories", "last", "city", "dark", "love", "king", "empire", "garden", "letters",
+        "secret", "world", "collected", "poems", "journey", "murder", "island", "winter", "children", "time"
+    };
+    private static final String[] LANGUAGES = { "eng", "eng", "eng", "eng", "en-US", "en-GB", "spa", "fre", "ger", "jpn" };
+
+    private static byte[] csv;
+
+    // a catalog shaped like books.csv: mostly english, a long tail of authors
+    // with some books written together, and rating counts skewed towards zero
+    @BeforeAll
+    public static void generateCatalog() {
+        Random random = new Random(35);
+        StringBuilder out = new StringBuilder(ROWS * 128);
+        out.append("bookID,title,authors,average_rating,isbn,isbn13,language_code,# num_pages,ratings_count,text_reviews_count\n");
+
+        for (int id = 1; id <= ROWS; ++id) {
+            out.append(id).append(',');
+
+            int titleWords = 1 + random.nextInt(6);
+            for (int w = 0; w < titleWords; ++w) {
+                if (w > 0) {
+                    out.append(' ');
+                }
+                out.append(WORDS[random.nextInt(WORDS.length)]);
+            }
+            out.append(" #").append(random.nextInt(10)).append(',');
+
+            int authors = random.nextInt(10) < 8 ? 1 : 2 + random.nextInt(2);
+            for (int a = 0; a < authors; ++a) {
+                if (a > 0) {
+                    out.append('-');
+                }
+                // squaring skews the authors so a few have written lots of books
+                double skew = random.nextDouble();
+                out.append("Author ").append((int) (skew * skew * 20000));
+            }
+            out.append(',');
+
+            out.append(random.nextInt(5)).append('.').append(random.nextInt(100)).append(',');
+            long isbn = 1000000000L + random.nextInt(900000000);
+            out.append(isbn).append(',').append(9780000000000L + isbn % 1000000000L).append(',');
+            out.append(LANGUAGES[random.nextInt(LANGUAGES.length)]).append(',');
+            out.append(random.nextInt(1200)).append(',');
+            int ratings = (int) Math.pow(10, random.nextDouble() * 6);
+            out.append(ratings).append(',');
+            out.append(ratings / (1 + random.nextInt(50))).append('\n');
+        }
+
+        csv = out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    // bytes allocated by this thread since it started
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    // bytes allocated by every live thread, for work that runs on the fork join pool
+    private static long allocatedBytesAllThreads() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            // -1 for threads that died between listing and asking
+            total += Math.max(allocated, 0);
+        }
+        return total;
+    }
+
+    private static long usedHeap() {
+        // a couple of collections so anything finalizable or softly reachable is gone too
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static List<Book> readCatalog() throws IOException {
+        return BookStats.readCsv(new ByteArrayInputStream(csv));
+    }
+
+    // the fastest of a few runs, so a collection or the jit landing mid run doesn't count
+    private static <T> long bestMillis(Supplier<T> build) {
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 3; ++run) {
+            long start = System.nanoTime();
+            build.get();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return best / 1000000;
+    }
+
+    private static void assertWithinBudget(String measure, double actual, double budget) {
+        assertTrue(actual <= budget, String.format("%s was %.1f, over its budget of %.1f", measure, actual, budget));
+    }
+
+    @Test
+    public void testAllocationPerRowReadingCsv() throws IOException {
+        // warm up so class loading and interpreted code aren't counted
+        readCatalog();
+
+        long before = allocatedBytes();
+        List<Book> books = readCatalog();
+        long allocated = allocatedBytes() - before;
+
+        // the line itself, the five text columns copied out of it, and the book
+        assertWithinBudget("bytes allocated per row by readCsv", (double) allocated / books.size(),
+            COMPACT_STRINGS ? 720 : 900);
+    }
+
+    @Test
+    public void testAllocationPerRowLoadingCsv() throws IOException {
+        new BookStats().loadCsv(new ByteArrayInputStream(csv));
+
+        BookStats stats = new BookStats();
+        long before = allocatedBytesAllThreads();
+        stats.loadCsv(new ByteArrayInputStream(csv));
+        long allocated = allocatedBytesAllThreads() - before;
+
+        // reading plus building the search index, coauthor graph and column statistics
+        assertWithinBudget("bytes allocated per row by loadCsv", (double) allocated / stats.getBooks().size(),
+            COMPACT_STRINGS ? 2800 : 3600);
+    }
+
+    @Test
+    public void testRetainedHeapPerBook() throws IOException {
+        long before = usedHeap();
+        List<Book> books = readCatalog();
+        long retained = usedHeap() - before;
+
+        assertWithinBudget("bytes retained per book", (double) retained / books.size(), 400);
+    }
+
+    @Test
+    public void testRetainedHeapPerLoadedBook() throws IOException {
+        long before = usedHeap();
+        BookStats stats = new BookStats();
+        stats.loadCsv(new ByteArrayInputStream(csv));
+        long retained = usedHeap() - before;
+
+        // the books plus everything loadBooks derives from them
+        assertWithinBudget("bytes retained per loaded book", (double) retained / stats.getBooks().size(),
+            COMPACT_STRINGS ? 720 : 800);
+    }
+
+    @Test
+    public void testIndexBuildTime() throws IOException {
+        List<Book> books = readCatalog();
+        BookStats stats = new BookStats();
+
+        assertWithinBudget("search index build ms", bestMillis(() -> SearchIndex.build(books)), 3000);
+        assertWithinBudget("coauthor graph build ms", bestMillis(() -> CoAuthorGraph.build(books)), 3000);
+        assertWithinBudget("column statistics ms", bestMillis(() -> ColumnStatistics.collect(books)), 2000);
+        assertWithinBudget("indexByAuthor ms", bestMillis(() -> stats.indexByAuthor(books)), 2000);
+    }
+}
@@ -1,5 +1,7 @@
 import com.patientping.Book;
 import com.patientping.BookStats;
+import com.patientping.RatingTotal;
+import com.patientping.SearchIndex;
 
 import org.junit.jupiter.api.*;
 import org.mockito.Mockito;
@@ -17,6 +19,9 @@ import java.util.Map;
 import java.util.HashMap;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 public class TestBookStats {
@@ -255,5 +260,179 @@ public class TestBookStats {
 
         assertEquals("The Star Diaries", highestRatio.getTitle());
     }
-}
 
+    @Test
+    public void testQueriesAreCachedUntilNextLoad() throws IOException {
+        String firstData =
+                "bookID,title,authors,average_rating,isbn,isbn13,language_code,# num_pages,ratings_count,text_reviews_count\n" +
+                "14428,The Inheritors,William Golding,3.53,0156443791,9780156443791,en-US,240,2681,257\n";
+        String secondData =
+                "bookID,title,authors,average_rating,isbn,isbn13,language_code,# num_pages,ratings_count,text_reviews_count\n" +
+                "14428,The Inheritors,William Golding,3.53,0156443791,9780156443791,en-US,240,2681,257\n"
+                + "2386,Moby Dick,Herman Melville-William Hootkins,3.49,9626343583,9789626343586,eng,25,66,17\n";
+
+        BookStats stats = new BookStats();
+        stats.loadCsv(new ByteArrayInputStream(firstData.getBytes(Charset.forName("UTF-8"))));
+
+        List<Book> englishBooks = stats.filterToEnglishBooks();
+        assertEquals(1, englishBooks.size());
+
+        // a repeated query is served from the cache
+        assertTrue(englishBooks == stats.filterToEnglishBooks());
+        assertEquals(1, stats.getQueryCache().getHitCount());
+
+        // loading new data invalidates the cached results
+        stats.loadCsv(new ByteArrayInputStream(secondData.getBytes(Charset.forName("UTF-8"))));
+        assertEquals(2, stats.filterToEnglishBooks().size());
+        assertEquals(2, stats.getDataVersion());
+    }
+
+    @Test
+    public void testDashboardQueriesAreCached() {
+        List<Book> books = new ArrayList<Book>();
+        books.add(Book.builder().id(1).authors("Arthur C. Clarke").language("eng").averageRating(4.1f).build());
+        books.add(Book.builder().id(2).authors("Arthur C. Clarke-Gentry Lee").language("en-US").averageRating(3.5f).build());
+        books.add(Book.builder().id(3).authors("Stanislaw Lem").language("pol").averageRating(4.5f).build());
+
+        BookStats stats = new BookStats();
+        stats.loadBooks(books);
+
+        Map.Entry<String, Integer> mostEnglish = stats.findAuthorWithMostEnglishBooks();
+        Map.Entry<String, Double> highestAverage = stats.findAuthorWithHighestAverageRating();
+        assertEquals("Arthur C. Clarke", mostEnglish.getKey());
+        assertEquals(2, (int) mostEnglish.getValue());
+        assertEquals("Stanislaw Lem", highestAverage.getKey());
+
+        // a refresh is served from the cache
+        long hits = stats.getQueryCache().getHitCount();
+        assertTrue(mostEnglish == stats.findAuthorWithMostEnglishBooks());
+        assertTrue(highestAverage == stats.findAuthorWithHighestAverageRating());
+        assertEquals(hits + 2, stats.getQueryCache().getHitCount());
+
+        // nobody sharing the cached results can change them
+        assertThrows(UnsupportedOperationException.class, () -> mostEnglish.setValue(0));
+        assertThrows(UnsupportedOperationException.class,
+            () -> stats.indexByAuthor().get("Arthur C. Clarke").clear());
+    }
+
+    @Test
+    public void testFindTopRatedBooks() {
+      List<Book> books = new ArrayList<Book>();
+      books.add(Book.builder().id(1).averageRating(4.27f).ratingCount(99).title("Rendezvous With Rama").build());
+      books.add(Book.builder().id(2).averageRating(4.95f).ratingCount(24).title("Book of the New Sun").build());
+      books.add(Book.builder().id(3).averageRating(4.45f).ratingCount(33).title("The Star Diaries").build());
+      books.add(Book.builder().id(4).averageRating(4.45f).ratingCount(50).title("Solaris").build());
+
+      BookStats stats = new BookStats();
+      List<Book> top = stats.findTopRatedBooks(books, 2);
+
+      // Book of the New Sun has too few ratings, Solaris wins the tie on rating count
+      assertEquals(2, top.size());
+      assertEquals("Solaris", top.get(0).getTitle());
+      assertEquals("The Star Diaries", top.get(1).getTitle());
+    }
+
+    @Test
+    public void testUpsertAndDelete() {
+      List<Book> books = new ArrayList<Book>();
+      books.add(Book.builder().id(1).title("Rendezvous With Rama").ratingCount(99).build());
+      books.add(Book.builder().id(2).title("Book of the New Sun").ratingCount(25).build());
+      books.add(Book.builder().id(3).title("The Star Diaries").ratingCount(33).build());
+
+      BookStats stats = new BookStats();
+      stats.loadBooks(books);
+
+      // replacing an existing id keeps the book count the same
+      stats.upsert(Book.builder().id(2).title("Book of the New Sun").ratingCount(250).build());
+      assertEquals(3, stats.getBooks().size());
+      assertEquals(250, stats.findById(2).getRatingCount());
+
+      // a new id is added
+      stats.upsert(Book.builder().id(4).title("Solaris").ratingCount(70).build());
+      assertEquals(4, stats.getBooks().size());
+
+      // deleting moves the last book into the hole, every id must still be found
+      assertTrue(stats.delete(1));
+      assertEquals(false, stats.delete(1));
+      assertEquals(3, stats.getBooks().size());
+      assertEquals(null, stats.findById(1));
+      assertEquals("Solaris", stats.findById(4).getTitle());
+      assertEquals("The Star Diaries", stats.findById(3).getTitle());
+
+      // search sees the updates
+      assertEquals(1, stats.search("solaris", 10).size());
+      assertEquals(0, stats.search("rama", 10).size());
+    }
+
+    @Test
+    public void testUpdatesAreKeptApartUntilFolded() {
+      List<Book> books = new ArrayList<Book>();
+      books.add(Book.builder().id(1).title("Rendezvous With Rama").authors("Arthur C. Clarke").ratingCount(99).build());
+      books.add(Book.builder().id(2).title("Book of the New Sun").authors("Gene Wolfe").ratingCount(25).build());
+
+      BookStats stats = new BookStats();
+      stats.loadBooks(books);
+      SearchIndex base = stats.getSearchIndex();
+
+      stats.upsert(Book.builder().id(2).title("Shadow of the Torturer").authors("Gene Wolfe").ratingCount(25).build());
+      stats.upsert(Book.builder().id(3).title("Solaris").authors("Stanislaw Lem").ratingCount(70).build());
+      assertEquals(2, stats.getPendingUpdateCount());
+
+      // search answers from the base index plus the updates
+      assertEquals(0, stats.search("sun", 10).size());
+      assertEquals(2, stats.search("torturer", 10).get(0).getId());
+      assertEquals(3, stats.search("solaris", 10).get(0).getId());
+
+      // the index handed out is never null and reflects the updates
+      assertNotNull(stats.getSearchIndex());
+      assertNotSame(base, stats.getSearchIndex());
+      assertEquals(1, stats.getSearchIndex().search("solaris", null, 10).size());
+
+      stats.foldUpdates();
+      assertEquals(0, stats.getPendingUpdateCount());
+      assertEquals(3, stats.search("solaris", 10).get(0).getId());
+      assertEquals(0, stats.search("sun", 10).size());
+      assertEquals(3, stats.getColumnStatistics().getRowCount());
+    }
+
+    @Test
+    public void testFoldingIsLeftToTheCallerUnlessAutoFold() {
+      BookStats stats = new BookStats();
+      stats.loadBooks(new ArrayList<Book>());
+
+      for (int id = 0; id < 2000; ++id) {
+        stats.upsert(Book.builder().id(id).title("Book " + id).build());
+      }
+      // updates never rebuild anything on their own
+      assertEquals(2000, stats.getPendingUpdateCount());
+      assertTrue(stats.isFoldDue());
+
+      BookStats folding = new BookStats();
+      folding.loadBooks(new ArrayList<Book>());
+      folding.setAutoFold(true);
+      for (int id = 0; id < 2000; ++id) {
+        folding.upsert(Book.builder().id(id).title("Book " + id).build());
+      }
+      assertTrue(folding.getPendingUpdateCount() < 1024);
+      assertEquals(false, folding.isFoldDue());
+      assertEquals(1999, folding.search("1999", 1).get(0).getId());
+    }
+
+    @Test
+    public void testCachedRatingTotalsCantBeChanged() {
+      List<Book> books = new ArrayList<Book>();
+      books.add(Book.builder().id(1).authors("Gene Wolfe").averageRating(4.5f).build());
+      books.add(Book.builder().id(2).authors("Gene Wolfe").averageRating(3.5f).build());
+
+      BookStats stats = new BookStats();
+      stats.loadBooks(books);
+
+      // adding to a total hands back a new one, the cached total is untouched
+      RatingTotal total = stats.ratingTotalsByAuthor().get("Gene Wolfe");
+      RatingTotal merged = total.merge(new RatingTotal(1.0, 1)).add(2.0);
+      assertEquals(4.0, stats.ratingTotalsByAuthor().get("Gene Wolfe").average(), 0.001);
+      assertEquals(2, stats.ratingTotalsByAuthor().get("Gene Wolfe").getCount());
+      assertEquals(4, merged.getCount());
+      assertEquals(11.0, merged.getSum(), 0.001);
+    }
+}
@@ -37,5 +37,33 @@ public class TestCSVParser {
 
       assertEquals(true, values.isEmpty());
     }
-}
 
+    @Test
+    public void testFindColumns() {
+      CSVParser.readHeader("id,title,author,language");
+
+      String line = "123,Rendezvous with Rama,Arthur C. Clarke,English";
+      int[] starts = new int[4];
+      int[] ends = new int[4];
+
+      assertEquals(4, CSVParser.findColumns(line, starts, ends));
+      assertEquals("123", line.substring(starts[0], ends[0]));
+      assertEquals("Rendezvous with Rama", line.substring(starts[1], ends[1]));
+      assertEquals("English", line.substring(starts[3], ends[3]));
+      assertEquals(2, CSVParser.columnIndex("author"));
+      assertEquals(-1, CSVParser.columnIndex("isbn"));
+    }
+
+    @Test
+    public void testFindColumnsCountsLikeParseLine() {
+      CSVParser.readHeader("a,b,c");
+      int[] starts = new int[3];
+      int[] ends = new int[3];
+
+      // the column count has to agree with parseLine, which drops trailing empty columns
+      String[] lines = { "1,2,3", "1,,3", ",2,3", "1,2,", "1,2,3,4", "1", "", ",,", "1,2,3,,", "1,2,3,,5" };
+      for (String line : lines) {
+        assertEquals(line.split(",").length, CSVParser.findColumns(line, starts, ends), line);
+      }
+    }
+}
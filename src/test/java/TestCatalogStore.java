@@ -0,0 +1,220 @@
+import com.patientping.Book;
+import com.patientping.BookStats;
+import com.patientping.CatalogStore;
+import com.patientping.WriteAheadLog;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestCatalogStore {
+    private List<Book> books() {
+        List<Book> books = new ArrayList<Book>();
+        books.add(Book.builder().id(1).title("Rendezvous With Rama").authors("Arthur C. Clarke").ratingCount(99).build());
+        books.add(Book.builder().id(2).title("Book of the New Sun").authors("Gene Wolfe").ratingCount(25).build());
+        return books;
+    }
+
+    @Test
+    public void testUpdatesReplayedOnOpen(@TempDir Path directory) throws IOException {
+        BookStats stats = new BookStats();
+        stats.loadBooks(books());
+
+        try (CatalogStore store = CatalogStore.open(directory, stats, 100)) {
+            store.upsert(Book.builder().id(2).title("Book of the New Sun").authors("Gene Wolfe").ratingCount(26).build());
+            store.upsert(Book.builder().id(3).title("Solaris").authors("Stanislaw Lem").language("pol").ratingCount(70).build());
+            assertTrue(store.delete(1));
+            assertEquals(false, store.delete(1));
+        }
+
+        // start again from the same base data and let the log bring it up to date
+        BookStats restored = new BookStats();
+        restored.loadBooks(books());
+        try (CatalogStore store = CatalogStore.open(directory, restored, 100)) {
+            assertEquals(2, restored.getBooks().size());
+            assertEquals(null, restored.findById(1));
+            assertEquals(26, restored.findById(2).getRatingCount());
+            assertEquals("Stanislaw Lem", restored.findById(3).getAuthors());
+            assertEquals("pol", restored.findById(3).getLanguage());
+        }
+    }
+
+    @Test
+    public void testCompactWritesSnapshot(@TempDir Path directory) throws Exception {
+        BookStats stats = new BookStats();
+        stats.loadBooks(books());
+
+        try (CatalogStore store = CatalogStore.open(directory, stats, 1)) {
+            store.upsert(Book.builder().id(3).title("Solaris").ratingCount(70).build());
+            store.compact().get();
+
+            // the log was rolled into the snapshot
+            assertTrue(Files.exists(directory.resolve("catalog.snapshot")));
+            assertEquals(false, Files.exists(directory.resolve("catalog.log.compacting")));
+            assertEquals(0, Files.size(directory.resolve("catalog.log")));
+
+            // updates after the compaction go to the new log
+            store.delete(1);
+        }
+
+        // the snapshot replaces the base data, nothing else needs loading
+        BookStats restored = new BookStats();
+        try (CatalogStore store = CatalogStore.open(directory, restored, 1)) {
+            assertEquals(2, restored.getBooks().size());
+            assertEquals("Solaris", restored.findById(3).getTitle());
+            assertEquals(null, restored.findById(1));
+        }
+    }
+
+    @Test
+    public void testCompactFoldsUpdatesIntoStats(@TempDir Path directory) throws Exception {
+        BookStats stats = new BookStats();
+        stats.loadBooks(books());
+
+        try (CatalogStore store = CatalogStore.open(directory, stats, 1)) {
+            store.upsert(Book.builder().id(3).title("Solaris").authors("Stanislaw Lem").ratingCount(70).build());
+            assertEquals(1, stats.getPendingUpdateCount());
+
+            store.compact().get();
+
+            assertEquals(0, stats.getPendingUpdateCount());
+            assertEquals(3, (int) store.read(s -> s.search("solaris", 10).get(0).getId()));
+        }
+    }
+
+    @Test
+    public void testCompactsOnceAFoldIsDue(@TempDir Path directory) throws Exception {
+        BookStats stats = new BookStats();
+        stats.loadBooks(books());
+
+        try (CatalogStore store = CatalogStore.open(directory, stats, 1000)) {
+            for (int id = 10; id < 1100; ++id) {
+                store.upsert(Book.builder().id(id).title("Book " + id).build());
+            }
+        }
+
+        // closing waited for the compaction started along the way
+        assertTrue(Files.exists(directory.resolve("catalog.snapshot")));
+        assertTrue(!Files.exists(directory.resolve("catalog.log.compacting")));
+        assertTrue(stats.getPendingUpdateCount() < 1024);
+
+        BookStats restored = new BookStats();
+        try (CatalogStore reopened = CatalogStore.open(directory, restored, 1)) {
+            assertEquals(1092, restored.getBooks().size());
+        }
+    }
+
+    @Test
+    public void testFailedCompactionKeepsItsLog(@TempDir Path directory) throws Exception {
+        BookStats stats = new BookStats();
+        stats.loadBooks(books());
+        CatalogStore store = CatalogStore.open(directory, stats, 1);
+
+        // a directory where the snapshot goes makes writing it fail
+        Path blocker = directory.resolve("catalog.snapshot").resolve("blocker");
+        Files.createDirectories(blocker);
+
+        store.upsert(Book.builder().id(3).title("Solaris").build());
+        assertThrows(ExecutionException.class, () -> store.compact().get());
+        store.upsert(Book.builder().id(4).title("The Star Diaries").build());
+        assertThrows(ExecutionException.class, () -> store.compact().get());
+
+        // neither compaction's updates were lost from the log waiting to be snapshotted
+        BookStats replayed = new BookStats();
+        replayed.loadBooks(books());
+        WriteAheadLog.replay(directory.resolve("catalog.log.compacting"), replayed);
+        assertEquals("Solaris", replayed.findById(3).getTitle());
+        assertEquals("The Star Diaries", replayed.findById(4).getTitle());
+
+        assertThrows(IOException.class, store::close);
+        Files.delete(blocker);
+        Files.delete(blocker.getParent());
+
+        BookStats restored = new BookStats();
+        restored.loadBooks(books());
+        try (CatalogStore reopened = CatalogStore.open(directory, restored, 1)) {
+            assertEquals(4, restored.getBooks().size());
+        }
+    }
+
+    @Test
+    public void testAppendedRecordsAreWrittenBeforeSync(@TempDir Path directory) throws IOException {
+        Path logPath = directory.resolve("catalog.log");
+
+        BookStats stats = new BookStats();
+        stats.loadBooks(books());
+        try (WriteAheadLog log = WriteAheadLog.open(logPath, 1000, stats)) {
+            log.appendUpsert(Book.builder().id(3).title("Solaris").build());
+
+            // nothing has been fsynced, but the record is already in the file
+            // rather than a buffer in this process
+            BookStats other = new BookStats();
+            other.loadBooks(books());
+            WriteAheadLog.replay(logPath, other);
+            assertEquals("Solaris", other.findById(3).getTitle());
+        }
+    }
+
+    @Test
+    public void testInterruptedCompactionIsFinishedOnOpen(@TempDir Path directory) throws IOException {
+        BookStats stats = new BookStats();
+        stats.loadBooks(books());
+        try (CatalogStore store = CatalogStore.open(directory, stats, 1)) {
+            store.upsert(Book.builder().id(3).title("Solaris").ratingCount(70).build());
+        }
+        // pretend we crashed after rolling the log but before writing the snapshot
+        Files.move(directory.resolve("catalog.log"), directory.resolve("catalog.log.compacting"));
+
+        BookStats restored = new BookStats();
+        restored.loadBooks(books());
+        try (CatalogStore store = CatalogStore.open(directory, restored, 1)) {
+            assertEquals(3, restored.getBooks().size());
+            assertEquals(false, Files.exists(directory.resolve("catalog.log.compacting")));
+            assertTrue(Files.exists(directory.resolve("catalog.snapshot")));
+        }
+    }
+
+    @Test
+    public void testTornRecordIsDropped(@TempDir Path directory) throws IOException {
+        Path logPath = directory.resolve("catalog.log");
+
+        BookStats stats = new BookStats();
+        stats.loadBooks(books());
+        try (WriteAheadLog log = WriteAheadLog.open(logPath, 10, stats)) {
+            log.appendUpsert(Book.builder().id(3).title("Solaris").build());
+            log.appendUpsert(Book.builder().id(4).title("The Star Diaries").build());
+        }
+
+        // chop the end off the last record as if we crashed mid write
+        try (RandomAccessFile file = new RandomAccessFile(logPath.toFile(), "rw")) {
+            file.setLength(file.length() - 3);
+        }
+
+        BookStats restored = new BookStats();
+        restored.loadBooks(books());
+        try (WriteAheadLog log = WriteAheadLog.open(logPath, 10, restored)) {
+            assertEquals(3, restored.getBooks().size());
+            assertEquals(null, restored.findById(4));
+
+            // new records go after the last intact one, not after the torn bytes
+            log.appendDelete(3);
+        }
+
+        BookStats again = new BookStats();
+        again.loadBooks(books());
+        WriteAheadLog.replay(logPath, again);
+        assertEquals(2, again.getBooks().size());
+        assertEquals(null, again.findById(3));
+    }
+}
@@ -0,0 +1,114 @@
+import com.patientping.Book;
+import com.patientping.BookStats;
+import com.patientping.CoAuthorGraph;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestCoAuthorGraph {
+    private List<Book> books() {
+        List<Book> books = new ArrayList<Book>();
+        books.add(Book.builder().authors("Arthur C. Clarke").averageRating(4.1f).build());
+        books.add(Book.builder().authors("Arthur C. Clarke-Gentry Lee").averageRating(3.5f).build());
+        books.add(Book.builder().authors("Arthur C. Clarke-Gentry Lee").averageRating(3.5f).build());
+        books.add(Book.builder().authors("Arthur C. Clarke-Stephen Baxter").averageRating(4.0f).build());
+        books.add(Book.builder().authors("Stephen Baxter-Terry Pratchett").averageRating(3.9f).build());
+        books.add(Book.builder().authors("Gene Wolfe").averageRating(4.5f).build());
+        books.add(Book.builder().authors("Neil Gaiman-Terry Pratchett-Neil Gaiman").averageRating(4.3f).build());
+        return books;
+    }
+
+    @Test
+    public void testBuild() {
+        CoAuthorGraph graph = CoAuthorGraph.build(books());
+
+        assertEquals(6, graph.getAuthorCount());
+        // clarke-lee, clarke-baxter, baxter-pratchett, gaiman-pratchett
+        assertEquals(4, graph.getEdgeCount());
+
+        assertEquals(2, graph.degree("Arthur C. Clarke"));
+        assertEquals(1, graph.degree("Gentry Lee"));
+        assertEquals(0, graph.degree("Gene Wolfe"));
+        assertEquals(0, graph.degree("Nobody"));
+        // an author listed twice on a book isn't their own coauthor
+        assertEquals(1, graph.degree("Neil Gaiman"));
+    }
+
+    @Test
+    public void testNeighbours() {
+        CoAuthorGraph graph = CoAuthorGraph.build(books());
+
+        List<CoAuthorGraph.CoAuthor> coAuthors = graph.neighbours("Arthur C. Clarke");
+
+        // Gentry Lee shares two books, Stephen Baxter only one
+        assertEquals(2, coAuthors.size());
+        assertEquals("Gentry Lee", coAuthors.get(0).getAuthor());
+        assertEquals(2, coAuthors.get(0).getSharedBooks());
+        assertEquals(7.0f, coAuthors.get(0).getCombinedRating(), .001);
+        assertEquals("Stephen Baxter", coAuthors.get(1).getAuthor());
+        assertEquals(1, coAuthors.get(1).getSharedBooks());
+        assertEquals(4.0f, coAuthors.get(1).getCombinedRating(), .001);
+
+        // edges go both ways
+        assertEquals("Arthur C. Clarke", graph.neighbours("Gentry Lee").get(0).getAuthor());
+        assertEquals(0, graph.neighbours("Nobody").size());
+    }
+
+    @Test
+    public void testTopByDegree() {
+        CoAuthorGraph graph = CoAuthorGraph.build(books());
+
+        List<Map.Entry<String, Integer>> top = graph.topByDegree(3);
+
+        assertEquals(3, top.size());
+        assertEquals("Arthur C. Clarke", top.get(0).getKey());
+        assertEquals(2, top.get(0).getValue());
+        assertEquals("Stephen Baxter", top.get(1).getKey());
+        assertEquals("Terry Pratchett", top.get(2).getKey());
+    }
+
+    @Test
+    public void testComponents() {
+        CoAuthorGraph graph = CoAuthorGraph.build(books());
+
+        // everyone but Gene Wolfe is connected through Baxter and Pratchett
+        assertEquals(2, graph.getComponentCount());
+        assertEquals(5, graph.largestComponentSize());
+        assertTrue(graph.connected("Gentry Lee", "Neil Gaiman"));
+        assertEquals(false, graph.connected("Gentry Lee", "Gene Wolfe"));
+        assertEquals(1, graph.componentSize("Gene Wolfe"));
+        assertEquals(0, graph.componentSize("Nobody"));
+    }
+
+    @Test
+    public void testEmpty() {
+        CoAuthorGraph graph = CoAuthorGraph.build(new ArrayList<Book>());
+
+        assertEquals(0, graph.getAuthorCount());
+        assertEquals(0, graph.getComponentCount());
+        assertEquals(0, graph.topByDegree(5).size());
+    }
+
+    @Test
+    public void testBookStatsBuildsGraphOnLoad() throws IOException {
+        BookStats stats = new BookStats();
+        stats.load("/books.csv");
+
+        CoAuthorGraph graph = stats.getCoAuthorGraph();
+
+        // every author in the author index is in the graph
+        assertEquals(stats.indexByAuthor().size(), graph.getAuthorCount());
+        assertTrue(graph.getEdgeCount() > 0);
+
+        // and the graph follows updates
+        stats.upsert(Book.builder().id(-1).authors("Gene Wolfe-Somebody New").build());
+        assertTrue(stats.getCoAuthorGraph().neighbours("Somebody New").get(0).getAuthor().equals("Gene Wolfe"));
+    }
+}
@@ -7,6 +7,7 @@ import org.mockito.Mockito;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import java.util.AbstractMap;
 import java.util.List;
 import java.util.Arrays;
 import java.util.Map;
@@ -65,21 +66,11 @@ public class TestDisplayBookStats {
 
     @Test
     public void testPrintAuthorWithMostEnglishBooks() {
-        // create a fake list of 2 english book
-        List<Book> twoEnglishBooks = Arrays.asList(Book.builder().build(), Book.builder().build());
-        // create a fake index of books by author
-        Map<String, List<Book>> indexed = new HashMap<String, List<Book>>();
-        // add a fake entry into the fake index
-        indexed.put("English Author", twoEnglishBooks);
-
         BookStats stats = Mockito.mock(BookStats.class);
 
-        // mock filterToEnglishBooks to return fake list
-        Mockito.when(stats.filterToEnglishBooks()).thenReturn(twoEnglishBooks);
-        // mock indexByAuthor to return a fake index when passed the twoEnglishBooks list
-        Mockito.when(stats.indexByAuthor(twoEnglishBooks)).thenReturn(indexed);
-        // call the real method to return the author with the most english books from the mock index
-        Mockito.when(stats.findMostBooksByAuthor(indexed)).thenCallRealMethod();
+        // mock the cached query to return a fake author and count
+        Mockito.when(stats.findAuthorWithMostEnglishBooks())
+            .thenReturn(new AbstractMap.SimpleImmutableEntry<String, Integer>("English Author", 2));
 
         DisplayBookStats printer = new DisplayBookStats(stats);
 
@@ -92,11 +83,9 @@ public class TestDisplayBookStats {
 
     @Test
     public void testPrintAuthorWithMostEnglishBooksNotFound() {
-        Map<String, List<Book>> indexed = new HashMap<String, List<Book>>();
-
         BookStats stats = Mockito.mock(BookStats.class);
 
-        Mockito.when(stats.findMostBooksByAuthor(indexed)).thenCallRealMethod();
+        Mockito.when(stats.findAuthorWithMostEnglishBooks()).thenReturn(null);
 
         DisplayBookStats printer = new DisplayBookStats(stats);
 
@@ -179,22 +168,11 @@ public class TestDisplayBookStats {
 
     @Test
     public void testprintAuthorWithHighestAverageRating() {
-        // create a fake list of 2 books
-        List<Book> oneBook = Arrays.asList(
-          Book.builder().averageRating(5).build()
-        );
-
-        // create a fake index of books by author
-        Map<String, List<Book>> indexed = new HashMap<String, List<Book>>();
-        // add a fake entry into the fake index
-        indexed.put("Highest Rated Author", oneBook);
-
         BookStats stats = Mockito.mock(BookStats.class);
 
-        // mock indexByAuthor to return a mock index when passed the oneBook list
-        Mockito.when(stats.indexByAuthor()).thenReturn(indexed);
-        // call the real method to return the author with highest average from the mock index
-        Mockito.when(stats.findAuthorWithHighestAverageRating(indexed)).thenCallRealMethod();
+        // mock the cached query to return a fake author and average
+        Mockito.when(stats.findAuthorWithHighestAverageRating())
+            .thenReturn(new AbstractMap.SimpleImmutableEntry<String, Double>("Highest Rated Author", 5.0));
 
         DisplayBookStats printer = new DisplayBookStats(stats);
 
@@ -207,12 +185,9 @@ public class TestDisplayBookStats {
 
     @Test
     public void testprintAuthorWithHighestAverageRatingNotFound() {
-        Map<String, List<Book>> indexed = new HashMap<String, List<Book>>();
-
         BookStats stats = Mockito.mock(BookStats.class);
 
-        // call the real method to return the author with highest average from the mock index
-        Mockito.when(stats.findAuthorWithHighestAverageRating(indexed)).thenCallRealMethod();
+        Mockito.when(stats.findAuthorWithHighestAverageRating()).thenReturn(null);
 
         DisplayBookStats printer = new DisplayBookStats(stats);
 
@@ -0,0 +1,166 @@
+import com.patientping.NumberParser;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+// NumberParser must behave exactly like the JDK parsers, so most of these
+// tests generate lots of random inputs and compare the two, including which
+// exception is thrown and its message.
+public class TestNumberParser {
+    private static final int SAMPLES = 200000;
+
+    private void assertSameInt(String s) {
+        // parse out of the middle of a longer line the way the csv loader does
+        String line = "x," + s + ",y";
+        String expected;
+        try {
+            expected = String.valueOf(Integer.parseInt(s));
+        }
+        catch (NumberFormatException e) {
+            expected = e.toString();
+        }
+
+        String actual;
+        try {
+            actual = String.valueOf(NumberParser.parseInt(line, 2, 2 + s.length()));
+        }
+        catch (NumberFormatException e) {
+            actual = e.toString();
+        }
+
+        assertEquals(expected, actual, "parsing \"" + s + "\"");
+    }
+
+    private void assertSameFloat(String s) {
+        String line = "x," + s + ",y";
+        String expected;
+        try {
+            // compare bits so -0.0 and NaN are checked exactly
+            expected = Integer.toHexString(Float.floatToRawIntBits(Float.parseFloat(s)));
+        }
+        catch (NumberFormatException e) {
+            expected = e.toString();
+        }
+
+        String actual;
+        try {
+            actual = Integer.toHexString(Float.floatToRawIntBits(NumberParser.parseFloat(line, 2, 2 + s.length())));
+        }
+        catch (NumberFormatException e) {
+            actual = e.toString();
+        }
+
+        assertEquals(expected, actual, "parsing \"" + s + "\"");
+    }
+
+    private String randomDigits(Random random, int count) {
+        StringBuilder digits = new StringBuilder();
+        for (int i = 0; i < count; ++i) {
+            digits.append((char) ('0' + random.nextInt(10)));
+        }
+        return digits.toString();
+    }
+
+    private String randomSign(Random random) {
+        int sign = random.nextInt(4);
+        return sign == 0 ? "-" : sign == 1 ? "+" : "";
+    }
+
+    @Test
+    public void testParseIntMatchesJdkForRandomInts() {
+        Random random = new Random(1);
+        for (int i = 0; i < SAMPLES; ++i) {
+            assertSameInt(String.valueOf(random.nextInt()));
+            assertSameInt(String.valueOf(random.nextInt(100000)));
+        }
+    }
+
+    @Test
+    public void testParseIntMatchesJdkForRandomDigitStrings() {
+        Random random = new Random(2);
+        for (int i = 0; i < SAMPLES; ++i) {
+            // includes leading zeros and values that overflow an int
+            assertSameInt(randomSign(random) + randomDigits(random, random.nextInt(13)));
+        }
+    }
+
+    @Test
+    public void testParseIntMatchesJdkForEdgeCases() {
+        String[] cases = {
+            "0", "-0", "+0", "2147483647", "-2147483648", "2147483648", "-2147483649",
+            "", "-", "+", "not-a-number", " 1", "1 ", "1.0", "1e3", "0x10", "--1", "\u0661\u0662"
+        };
+        for (String s : cases) {
+            assertSameInt(s);
+        }
+    }
+
+    @Test
+    public void testParseFloatMatchesJdkForRatings() {
+        // the average_rating column is always d.dd
+        for (int i = 0; i <= 500; ++i) {
+            assertSameFloat(String.format("%d.%02d", i / 100, i % 100));
+        }
+    }
+
+    @Test
+    public void testParseFloatMatchesJdkForRandomDecimals() {
+        Random random = new Random(3);
+        for (int i = 0; i < SAMPLES; ++i) {
+            String integerPart = randomDigits(random, random.nextInt(10));
+            String fraction = randomDigits(random, random.nextInt(10));
+            String point = random.nextInt(8) == 0 ? "" : ".";
+            assertSameFloat(randomSign(random) + integerPart + point + fraction);
+        }
+    }
+
+    @Test
+    public void testParseFloatMatchesJdkForRandomFloats() {
+        Random random = new Random(4);
+        for (int i = 0; i < SAMPLES; ++i) {
+            // Float.toString produces the shortest digits that round trip, and
+            // uses exponents for very large and small values
+            assertSameFloat(Float.toString(Float.intBitsToFloat(random.nextInt())));
+            assertSameFloat(Float.toString(random.nextFloat() * 5));
+            assertSameFloat(Double.toString(random.nextDouble() * 1000));
+        }
+    }
+
+    @Test
+    public void testParseFloatMatchesJdkNearMidpoints() {
+        // decimals close to halfway between two floats, where rounding to
+        // double first and then to float can land on the wrong one
+        String[] cases = { "4.23482871055603", "5.30656886100769", "3.07890522480011" };
+        for (String s : cases) {
+            assertSameFloat(s);
+        }
+
+        Random random = new Random(5);
+        for (int i = 0; i < SAMPLES / 10; ++i) {
+            float f = random.nextFloat() * 5;
+            BigDecimal midpoint = new BigDecimal(f).add(new BigDecimal(Math.nextUp(f))).divide(BigDecimal.valueOf(2));
+            for (int scale = 1; scale <= 16; ++scale) {
+                assertSameFloat(midpoint.setScale(scale, RoundingMode.DOWN).toPlainString());
+                assertSameFloat(midpoint.setScale(scale, RoundingMode.UP).toPlainString());
+            }
+        }
+    }
+
+    @Test
+    public void testParseFloatMatchesJdkForEdgeCases() {
+        String[] cases = {
+            "0", "-0", "-0.0", "0.", ".0", ".5", "5.", "3.4028235e38", "1.4e-45", "123456789012345", "16777216", "16777217",
+            "1677721.6", "1677721.7", "0.0000000001", "0.00000000001",
+            "1234567890123456", "0.000000000000001", "9007199254740993", "1e5", "1E-5", "NaN",
+            "-Infinity", "1.5f", "1.5d", " 1.5", "1.5 ", "", ".", "-", "+.", "1.2.3", "abc", "0x1p3", "4,56"
+        };
+        for (String s : cases) {
+            assertSameFloat(s);
+        }
+    }
+}
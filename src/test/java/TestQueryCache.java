@@ -0,0 +1,141 @@
+import com.patientping.QueryCache;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestQueryCache {
+    @Test
+    public void testGetCachesResult() {
+        QueryCache cache = new QueryCache(10);
+        AtomicInteger computed = new AtomicInteger();
+
+        assertEquals("result", cache.get("query", 1, () -> { computed.incrementAndGet(); return "result"; }));
+        assertEquals("result", cache.get("query", 1, () -> { computed.incrementAndGet(); return "result"; }));
+
+        // the second call should be served from the cache
+        assertEquals(1, computed.get());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate());
+    }
+
+    @Test
+    public void testGetKeyedByDataVersion() {
+        QueryCache cache = new QueryCache(10);
+
+        cache.get("query", 1, () -> "old");
+
+        // the same query against a newer version of the data must be recomputed
+        assertEquals("new", cache.get("query", 2, () -> "new"));
+        assertEquals(2, cache.getMissCount());
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        QueryCache cache = new QueryCache(2);
+
+        cache.get("a", 1, () -> "a");
+        cache.get("b", 1, () -> "b");
+        // touch a so b becomes the least recently used entry
+        cache.get("a", 1, () -> "a");
+        cache.get("c", 1, () -> "c");
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictionCount());
+
+        // a is still cached, b was evicted
+        assertEquals("a", cache.get("a", 1, () -> "recomputed"));
+        assertEquals("recomputed", cache.get("b", 1, () -> "recomputed"));
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        QueryCache cache = new QueryCache(10);
+
+        cache.get("query", 1, () -> "result");
+        cache.invalidateAll();
+
+        assertEquals(0, cache.size());
+        assertEquals("recomputed", cache.get("query", 1, () -> "recomputed"));
+    }
+
+    @Test
+    public void testNullResultsAreCached() {
+        QueryCache cache = new QueryCache(10);
+
+        // a query with no answer isn't recomputed on every call
+        assertEquals(null, cache.<String>get("query", 1, () -> null));
+        assertEquals(null, cache.<String>get("query", 1, () -> "recomputed"));
+        assertEquals(1, cache.size());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    @Test
+    public void testMaxEntriesMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new QueryCache(0));
+    }
+
+    @Test
+    public void testConcurrentMissesComputeOnce() throws Exception {
+        QueryCache cache = new QueryCache(10);
+        AtomicInteger computed = new AtomicInteger();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> cache.get("query", 1, () -> {
+                computed.incrementAndGet();
+                started.countDown();
+                await(release);
+                return "result";
+            }));
+            started.await();
+            Future<String> second = executor.submit(() -> cache.get("query", 1, () -> {
+                computed.incrementAndGet();
+                return "duplicate";
+            }));
+
+            // give the second caller time to find the computation in flight
+            Thread.sleep(100);
+            release.countDown();
+
+            assertEquals("result", first.get());
+            assertEquals("result", second.get());
+            assertEquals(1, computed.get());
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testFailedComputationIsNotCached() {
+        QueryCache cache = new QueryCache(10);
+
+        assertThrows(IllegalStateException.class, () -> cache.get("query", 1, () -> {
+            throw new IllegalStateException("failed");
+        }));
+
+        assertEquals(0, cache.size());
+        assertEquals("result", cache.get("query", 1, () -> "result"));
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        }
+        catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
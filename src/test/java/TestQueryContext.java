@@ -0,0 +1,150 @@
+import com.patientping.Book;
+import com.patientping.BookStats;
+import com.patientping.CancellationToken;
+import com.patientping.QueryContext;
+import com.patientping.QueryResult;
+import com.patientping.QueryTimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestQueryContext {
+    private List<Book> books(int count) {
+        List<Book> books = new ArrayList<Book>();
+        for (int i = 0; i < count; ++i) {
+            books.add(Book.builder().id(i).authors("Author " + (i % 10)).language("eng")
+                .averageRating(i % 5).ratingCount(100).textReviewsCount(1 + i % 7).build());
+        }
+        return books;
+    }
+
+    @Test
+    public void testUnboundedScanReportsRowsScanned() {
+        BookStats stats = new BookStats();
+
+        QueryResult<Map<String, List<Book>>> result = stats.indexByAuthor(books(100), QueryContext.unbounded());
+
+        assertEquals(10, result.getValue().size());
+        assertEquals(false, result.isPartial());
+        assertEquals(100, result.getRowsScanned());
+        assertEquals(100, result.getTotalRows());
+        assertEquals(1.0, result.getCoverage());
+    }
+
+    @Test
+    public void testCancelledBeforeStart() {
+        BookStats stats = new BookStats();
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+
+        assertThrows(CancellationException.class,
+            () -> stats.findHighestRatedBook(books(100), QueryContext.unbounded().cancellableBy(token)));
+    }
+
+    @Test
+    public void testCancelledAtChunkBoundary() {
+        BookStats stats = new BookStats();
+        CancellationToken token = new CancellationToken();
+        List<Long> progress = new ArrayList<Long>();
+
+        // cancel from the progress callback once the first chunk is done
+        QueryContext context = QueryContext.unbounded()
+            .cancellableBy(token)
+            .inChunksOf(10)
+            .reportingProgressTo((rowsScanned, totalRows) -> {
+                progress.add(rowsScanned);
+                token.cancel();
+            });
+
+        assertThrows(CancellationException.class, () -> stats.filterToEnglishBooks(books(100), context));
+        assertEquals(1, progress.size());
+        assertEquals(10L, (long) progress.get(0));
+    }
+
+    @Test
+    public void testDeadlineThrowsByDefault() {
+        BookStats stats = new BookStats();
+
+        QueryTimeoutException e = assertThrows(QueryTimeoutException.class,
+            () -> stats.findHighestRatioBook(books(100), QueryContext.withTimeout(0, TimeUnit.MILLISECONDS)));
+        assertEquals(0, e.getRowsScanned());
+    }
+
+    @Test
+    public void testDeadlineReturnsPartialResult() {
+        BookStats stats = new BookStats();
+        List<Book> books = books(100);
+        Map<String, List<Book>> byAuthor = stats.indexByAuthor(books);
+
+        // the deadline passes while the first chunk is reported, however long the scan really takes
+        AtomicLong clock = new AtomicLong();
+        QueryContext context = QueryContext.withTimeout(200, TimeUnit.MILLISECONDS, clock::get)
+            .allowingPartialResults()
+            .inChunksOf(4)
+            .reportingProgressTo((rowsScanned, totalRows) -> clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(300)));
+
+        QueryResult<Map.Entry<String, Double>> result = stats.findAuthorWithHighestAverageRating(byAuthor, context);
+
+        assertTrue(result.isPartial());
+        assertEquals(4, result.getRowsScanned());
+        assertEquals(10, result.getTotalRows());
+        assertEquals(0.4, result.getCoverage());
+        // the answer is the best of the authors that were scanned
+        assertTrue(result.getValue() != null);
+    }
+
+    @Test
+    public void testCachedQueriesTakeAContext() {
+        BookStats stats = new BookStats();
+        stats.loadBooks(books(100));
+
+        // a miss scans the books, the index then the authors in it
+        QueryResult<Map.Entry<String, Double>> first = stats.findAuthorWithHighestAverageRating(QueryContext.unbounded());
+        assertEquals(false, first.isPartial());
+        assertEquals(110, first.getRowsScanned());
+
+        // the complete results were cached for the queries without a context too
+        QueryResult<Map<String, List<Book>>> index = stats.indexByAuthor(QueryContext.unbounded());
+        assertEquals(0, index.getRowsScanned());
+        assertEquals(1.0, index.getCoverage());
+        assertSame(stats.indexByAuthor(), index.getValue());
+        assertEquals(stats.findAuthorWithHighestAverageRating(), first.getValue());
+    }
+
+    @Test
+    public void testPartialResultsAreNotCached() {
+        BookStats stats = new BookStats();
+        stats.loadBooks(books(100));
+
+        AtomicLong clock = new AtomicLong();
+        QueryContext context = QueryContext.withTimeout(200, TimeUnit.MILLISECONDS, clock::get)
+            .allowingPartialResults()
+            .inChunksOf(10)
+            .reportingProgressTo((rowsScanned, totalRows) -> clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(300)));
+
+        QueryResult<List<Book>> partial = stats.filterToEnglishBooks(context);
+        assertTrue(partial.isPartial());
+        assertEquals(10, partial.getValue().size());
+
+        // the next caller scans the whole catalog rather than getting the partial list
+        QueryResult<List<Book>> complete = stats.filterToEnglishBooks(QueryContext.unbounded());
+        assertEquals(100, complete.getRowsScanned());
+        assertEquals(100, stats.filterToEnglishBooks().size());
+    }
+
+    @Test
+    public void testChunkSizeMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> QueryContext.unbounded().inChunksOf(0));
+    }
+}
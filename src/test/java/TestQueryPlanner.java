@@ -0,0 +1,244 @@
+import com.patientping.Book;
+import com.patientping.BookQuery;
+import com.patientping.BookStats;
+import com.patientping.CancellationToken;
+import com.patientping.Histogram;
+import com.patientping.QueryContext;
+import com.patientping.QueryPlan;
+import com.patientping.QueryResult;
+import com.patientping.QueryTimeoutException;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestQueryPlanner {
+    // 1000 books by 100 authors, 900 in english and 100 in french
+    private BookStats stats() {
+        List<Book> books = new ArrayList<Book>();
+        for (int i = 0; i < 1000; ++i) {
+            books.add(Book.builder()
+                .id(i)
+                .authors("Author " + (i % 100))
+                .language(i % 10 == 0 ? "fre" : "eng")
+                .ratingCount(i)
+                .numPages(i % 500)
+                .build());
+        }
+        BookStats stats = new BookStats();
+        stats.loadBooks(books);
+        return stats;
+    }
+
+    private List<Integer> ids(List<Book> books) {
+        List<Integer> ids = new ArrayList<Integer>();
+        for (Book b : books) {
+            ids.add(b.getId());
+        }
+        return ids;
+    }
+
+    @Test
+    public void testHistogramEstimates() {
+        int[] values = new int[1000];
+        for (int i = 0; i < values.length; ++i) {
+            values[i] = i;
+        }
+        Histogram histogram = Histogram.build(values, 64);
+
+        assertEquals(1000, histogram.getDistinctCount());
+        assertEquals(100, histogram.estimateBetween(0, 99), 5);
+        assertEquals(1000, histogram.estimateBetween(Integer.MIN_VALUE, Integer.MAX_VALUE), 0.001);
+        assertEquals(0, histogram.estimateBetween(2000, 3000), 0.001);
+        assertEquals(0, histogram.estimateBetween(10, 5), 0.001);
+    }
+
+    @Test
+    public void testColumnStatistics() {
+        BookStats stats = stats();
+
+        assertEquals(1000, stats.getColumnStatistics().getRowCount());
+        assertEquals(2, stats.getColumnStatistics().getLanguageCardinality());
+        assertEquals(100, stats.getColumnStatistics().getAuthorCardinality());
+        assertEquals(100, stats.getColumnStatistics().estimateLanguageIn(Arrays.asList("fre")), 0.001);
+        assertEquals(10, stats.getColumnStatistics().estimateAuthor("Author 7"), 0.001);
+    }
+
+    @Test
+    public void testFullScanWhileIndexIsCold() {
+        BookStats stats = stats();
+        BookQuery query = new BookQuery().authorIs("Author 7").ratingCountBetween(0, 49);
+
+        QueryPlan plan = stats.plan(query);
+
+        // building the author index costs more than scanning, so scan and
+        // test the cheap, selective rating count first
+        assertEquals(QueryPlan.AccessPath.FULL_SCAN, plan.getAccessPath());
+        assertTrue(plan.getFilters().get(0) instanceof BookQuery.RatingCountBetween);
+        assertTrue(plan.getFilters().get(1) instanceof BookQuery.AuthorIs);
+        assertEquals(Arrays.asList(7), ids(plan.execute()));
+    }
+
+    @Test
+    public void testAuthorIndexOnceCached() {
+        BookStats stats = stats();
+        BookQuery query = new BookQuery().authorIs("Author 7").ratingCountBetween(0, 49);
+
+        stats.indexByAuthor();
+        QueryPlan plan = stats.plan(query);
+
+        assertEquals(QueryPlan.AccessPath.AUTHOR_INDEX, plan.getAccessPath());
+        assertEquals(1, plan.getFilters().size());
+        assertEquals(Arrays.asList(7), ids(plan.execute()));
+    }
+
+    @Test
+    public void testLanguageFilterOnceCached() {
+        BookStats stats = stats();
+        BookQuery query = new BookQuery().languageIn("fre").numPagesBetween(0, 99);
+
+        assertEquals(QueryPlan.AccessPath.FULL_SCAN, stats.plan(query).getAccessPath());
+
+        stats.filterToLanguages(Arrays.asList("fre"));
+        QueryPlan plan = stats.plan(query);
+
+        assertEquals(QueryPlan.AccessPath.LANGUAGE_FILTER, plan.getAccessPath());
+        assertEquals(Arrays.asList(0, 10, 20, 30, 40, 50, 60, 70, 80, 90, 500, 510, 520, 530, 540, 550, 560, 570, 580, 590),
+            ids(plan.execute()));
+    }
+
+    @Test
+    public void testQueryMatchesEveryPlan() {
+        BookStats stats = stats();
+        BookQuery query = new BookQuery()
+            .languageIn("eng")
+            .authorIs("Author 42")
+            .ratingCountBetween(100, 800)
+            .numPagesBetween(0, 200);
+
+        List<Integer> expected = new ArrayList<Integer>();
+        for (Book b : stats.getBooks()) {
+            boolean matches = true;
+            for (BookQuery.Filter filter : query.getFilters()) {
+                matches &= filter.matches(b);
+            }
+            if (matches) {
+                expected.add(b.getId());
+            }
+        }
+
+        List<Integer> cold = ids(stats.query(query));
+        stats.indexByAuthor();
+        stats.filterToLanguages(Arrays.asList("eng"));
+        List<Integer> warm = ids(stats.query(query));
+
+        assertEquals(Arrays.asList(142, 542, 642), expected);
+        assertEquals(expected, cold);
+        assertEquals(expected, warm);
+    }
+
+    @Test
+    public void testExplain() {
+        BookStats stats = stats();
+        stats.indexByAuthor();
+        QueryPlan plan = stats.plan(new BookQuery().authorIs("Author 7").ratingCountBetween(0, 49));
+
+        String before = plan.explain();
+        assertTrue(before.contains("AUTHOR_INDEX author = \"Author 7\" (cached) estimated=10.0 actual=-"));
+
+        plan.execute();
+        String after = plan.explain();
+        assertTrue(after.contains("AUTHOR_INDEX author = \"Author 7\" (cached) estimated=10.0 actual=10"));
+        assertTrue(after.contains("FILTER ratingCount between 0 and 49"));
+        assertTrue(after.contains("actual=1\n"));
+
+        assertEquals(after, stats.explain(new BookQuery().authorIs("Author 7").ratingCountBetween(0, 49)));
+    }
+
+    @Test
+    public void testStatisticsFollowUpdates() {
+        BookStats stats = stats();
+
+        stats.upsert(Book.builder().id(5000).authors("Author 7").language("ger").build());
+
+        assertEquals(1001, stats.getColumnStatistics().getRowCount());
+        assertEquals(11, stats.getColumnStatistics().estimateAuthor("Author 7"), 0.001);
+        assertEquals(Arrays.asList(5000), ids(stats.query(new BookQuery().languageIn("ger"))));
+    }
+
+    @Test
+    public void testHistogramsFollowUpdates() {
+        BookStats stats = stats();
+
+        // rating counts 0 to 99 go, and two books come in above the built range
+        for (int id = 0; id < 100; ++id) {
+            stats.delete(id);
+        }
+        stats.upsert(Book.builder().id(5000).ratingCount(5000).build());
+        stats.upsert(Book.builder().id(5001).ratingCount(6000).build());
+
+        assertEquals(902, stats.getColumnStatistics().estimateRatingCountBetween(Integer.MIN_VALUE, Integer.MAX_VALUE), 0.001);
+        assertEquals(0, stats.getColumnStatistics().estimateRatingCountBetween(0, 99), 5);
+        assertEquals(900, stats.getColumnStatistics().estimateRatingCountBetween(100, 999), 20);
+        assertTrue(stats.getColumnStatistics().estimateRatingCountBetween(1000, 6000) > 0);
+    }
+
+    @Test
+    public void testQueryReportsRowsScanned() {
+        BookStats stats = stats();
+        BookQuery query = new BookQuery().authorIs("Author 7").ratingCountBetween(0, 49);
+
+        // a cold full scan tests every book
+        QueryResult<List<Book>> cold = stats.query(query, QueryContext.unbounded());
+        assertEquals(Arrays.asList(7), ids(cold.getValue()));
+        assertEquals(1000, cold.getRowsScanned());
+        assertEquals(false, cold.isPartial());
+
+        // once the author index is cached only the author's books are tested
+        stats.indexByAuthor();
+        QueryResult<List<Book>> warm = stats.query(query, QueryContext.unbounded());
+        assertEquals(Arrays.asList(7), ids(warm.getValue()));
+        assertEquals(10, warm.getRowsScanned());
+    }
+
+    @Test
+    public void testQueryUnderADeadline() {
+        BookStats stats = stats();
+        BookQuery query = new BookQuery().languageIn("fre");
+
+        // time runs out once the first 100 books have been tested
+        AtomicLong clock = new AtomicLong();
+        QueryContext context = QueryContext.withTimeout(1, TimeUnit.SECONDS, clock::get)
+            .allowingPartialResults()
+            .inChunksOf(100)
+            .reportingProgressTo((rowsScanned, totalRows) -> clock.addAndGet(TimeUnit.SECONDS.toNanos(2)));
+
+        QueryResult<List<Book>> result = stats.query(query, context);
+        assertTrue(result.isPartial());
+        assertEquals(100, result.getRowsScanned());
+        assertEquals(Arrays.asList(0, 10, 20, 30, 40, 50, 60, 70, 80, 90), ids(result.getValue()));
+        assertTrue(stats.explain(query, context).contains("(partial)"));
+
+        assertThrows(QueryTimeoutException.class,
+            () -> stats.query(query, QueryContext.withTimeout(0, TimeUnit.MILLISECONDS)));
+    }
+
+    @Test
+    public void testQueryCancelled() {
+        BookStats stats = stats();
+        CancellationToken token = new CancellationToken();
+        token.cancel();
+
+        assertThrows(CancellationException.class,
+            () -> stats.query(new BookQuery().authorIs("Author 7"), QueryContext.unbounded().cancellableBy(token)));
+    }
+}
@@ -0,0 +1,140 @@
+import com.patientping.Book;
+import com.patientping.BookStats;
+import com.patientping.ReportResult;
+import com.patientping.ReportRunner;
+import com.patientping.ReportSpec;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+public class TestReportRunner {
+    private BookStats stats() {
+        List<Book> books = new ArrayList<Book>();
+        books.add(Book.builder().id(1).title("Shadow").authors("Gene Wolfe").language("eng").averageRating(4.5f).ratingCount(30).textReviewsCount(3).build());
+        books.add(Book.builder().id(2).title("Claw").authors("Gene Wolfe").language("eng").averageRating(3.5f).ratingCount(40).textReviewsCount(2).build());
+        books.add(Book.builder().id(3).title("Sword").authors("Gene Wolfe").language("fre").averageRating(4.0f).ratingCount(50).textReviewsCount(10).build());
+        books.add(Book.builder().id(4).title("Rama II").authors("Arthur C. Clarke-Gentry Lee").language("en-US").averageRating(4.8f).ratingCount(99).textReviewsCount(9).build());
+        books.add(Book.builder().id(5).title("Solaris").authors("Stanislaw Lem").language("pol").averageRating(4.2f).ratingCount(70).textReviewsCount(7).build());
+
+        BookStats stats = new BookStats();
+        stats.loadBooks(books);
+        return stats;
+    }
+
+    @Test
+    public void testParseSpec() {
+        ReportSpec spec = ReportSpec.parse("most-books-by-author; language=eng,en-US ;top=5;name=english");
+
+        assertEquals(ReportSpec.Metric.MOST_BOOKS_BY_AUTHOR, spec.getMetric());
+        assertEquals(Arrays.asList("eng", "en-US"), spec.getLanguages());
+        assertEquals(5, spec.getTop());
+        assertEquals("english", spec.getName());
+
+        ReportSpec defaults = ReportSpec.parse("books");
+        assertEquals("books", defaults.getName());
+        assertEquals(null, defaults.getLanguages());
+        assertEquals(10, defaults.getTop());
+    }
+
+    @Test
+    public void testParseBadSpec() {
+        assertThrows(IllegalArgumentException.class, () -> ReportSpec.parse("not-a-metric"));
+        assertThrows(IllegalArgumentException.class, () -> ReportSpec.parse("books;top"));
+        assertThrows(IllegalArgumentException.class, () -> ReportSpec.parse("books;color=red"));
+        assertThrows(IllegalArgumentException.class, () -> ReportSpec.parse("author;top=3"));
+    }
+
+    @Test
+    public void testRunCounts() {
+        try (ReportRunner runner = new ReportRunner(stats(), 2)) {
+            List<ReportResult> results = runner.runAll(ReportSpec.parseAll(
+                "books", "english-books", "books;language=fre,pol"));
+
+            assertEquals(Arrays.asList((Object) 5), results.get(0).getRows().get(0));
+            assertEquals(Arrays.asList((Object) 3), results.get(1).getRows().get(0));
+            assertEquals(Arrays.asList((Object) 2), results.get(2).getRows().get(0));
+        }
+    }
+
+    @Test
+    public void testRunAuthorRankings() {
+        try (ReportRunner runner = new ReportRunner(stats(), 2)) {
+            ReportResult most = runner.run(ReportSpec.parse("most-books-by-author;top=2"));
+            assertEquals(Arrays.asList("author", "books"), most.getColumns());
+            assertEquals(2, most.getRows().size());
+            assertEquals(Arrays.asList((Object) "Gene Wolfe", 3), most.getRows().get(0));
+
+            // restricted to english, Gene Wolfe has two books averaging 4.0
+            ReportResult average = runner.run(ReportSpec.parse("highest-average-authors;language=eng,en-US"));
+            assertEquals(Arrays.asList((Object) "Arthur C. Clarke", 4.800000190734863, 1), average.getRows().get(0));
+            assertEquals(Arrays.asList((Object) "Gene Wolfe", 4.0, 2), average.getRows().get(2));
+        }
+    }
+
+    @Test
+    public void testLanguageRankingsShareCachedIndex() {
+        BookStats stats = stats();
+        try (ReportRunner runner = new ReportRunner(stats, 2)) {
+            runner.run(ReportSpec.parse("most-books-by-author;language=eng,en-US"));
+            long misses = stats.getQueryCache().getMissCount();
+
+            // the same languages in another order reuse the index and totals
+            ReportResult most = runner.run(ReportSpec.parse("most-books-by-author;language=en-US,eng"));
+            runner.run(ReportSpec.parse("highest-average-authors;language=en-US,eng"));
+            ReportResult average = runner.run(ReportSpec.parse("highest-average-authors;language=eng,en-US"));
+
+            assertEquals(misses + 1, stats.getQueryCache().getMissCount());
+            assertEquals(Arrays.asList((Object) "Gene Wolfe", 2), most.getRows().get(0));
+            assertEquals(Arrays.asList((Object) "Gene Wolfe", 4.0, 2), average.getRows().get(2));
+        }
+    }
+
+    @Test
+    public void testRunBookRankings() {
+        try (ReportRunner runner = new ReportRunner(stats(), 2)) {
+            ReportResult rated = runner.run(ReportSpec.parse("highest-rated-books;top=2"));
+            assertEquals(4, rated.getRows().get(0).get(0));
+            assertEquals(1, rated.getRows().get(1).get(0));
+
+            ReportResult ratio = runner.run(ReportSpec.parse("highest-ratio-books;top=1"));
+            assertEquals(Arrays.asList((Object) 2, "Claw", "Gene Wolfe", 20.0f), ratio.getRows().get(0));
+        }
+    }
+
+    @Test
+    public void testRunAuthor() {
+        try (ReportRunner runner = new ReportRunner(stats(), 2)) {
+            ReportResult wolfe = runner.run(ReportSpec.parse("author;author=Gene Wolfe;language=eng"));
+            assertEquals(2, wolfe.getRows().size());
+            assertEquals("Shadow", wolfe.getRows().get(0).get(1));
+            assertEquals("Claw", wolfe.getRows().get(1).get(1));
+
+            ReportResult nobody = runner.run(ReportSpec.parse("author;author=Nobody"));
+            assertEquals(0, nobody.getRows().size());
+        }
+    }
+
+    @Test
+    public void testRunManyReportsConcurrently() {
+        List<ReportSpec> specs = new ArrayList<ReportSpec>();
+        for (int i = 0; i < 1000; ++i) {
+            specs.add(ReportSpec.parse(i % 2 == 0 ? "author;author=Gene Wolfe" : "most-books-by-author;language=eng"));
+        }
+
+        try (ReportRunner runner = new ReportRunner(stats(), 4)) {
+            List<ReportResult> results = runner.runAll(specs);
+
+            // results come back in the order the specs were given
+            assertEquals(1000, results.size());
+            for (int i = 0; i < results.size(); ++i) {
+                assertEquals(specs.get(i).getName(), results.get(i).getName());
+            }
+        }
+    }
+}
@@ -0,0 +1,137 @@
+import com.patientping.BatchReport;
+import com.patientping.ReportResult;
+import com.patientping.ReportWriter;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestReportWriter {
+    private ReportResult result() {
+        return new ReportResult("top \"books\"", "id", "title", "average_rating")
+            .addRow(1, "Rama, Part II", 4.5f)
+            .addRow(2, "Solaris", 4.25f);
+    }
+
+    private String write(String format, ReportResult result) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ReportWriter writer = ReportWriter.create(format, out)) {
+            writer.write(result);
+        }
+        return new String(out.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testWriteJson() throws IOException {
+        assertEquals(
+            "{\"report\":\"top \\\"books\\\"\",\"rows\":["
+                + "{\"id\":1,\"title\":\"Rama, Part II\",\"average_rating\":4.5},"
+                + "{\"id\":2,\"title\":\"Solaris\",\"average_rating\":4.25}]}\n",
+            write("json", result()));
+    }
+
+    @Test
+    public void testWriteCsv() throws IOException {
+        assertEquals(
+            "report,id,title,average_rating\n"
+                + "\"top \"\"books\"\"\",1,\"Rama, Part II\",4.5\n"
+                + "\"top \"\"books\"\"\",2,Solaris,4.25\n",
+            write("csv", result()));
+    }
+
+    @Test
+    public void testWriteBinary() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ReportWriter writer = ReportWriter.create("binary", out)) {
+            writer.write(result());
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(0x42525054, in.readInt());
+        assertEquals("top \"books\"", in.readUTF());
+        assertEquals(3, in.readInt());
+        assertEquals("id", in.readUTF());
+        assertEquals("title", in.readUTF());
+        assertEquals("average_rating", in.readUTF());
+        assertEquals(2, in.readInt());
+        // first row: int, string, float
+        assertEquals(2, in.readByte());
+        assertEquals(1, in.readInt());
+        assertEquals(1, in.readByte());
+        assertEquals("Rama, Part II", in.readUTF());
+        assertEquals(3, in.readByte());
+        assertEquals(4.5f, in.readFloat());
+    }
+
+    @Test
+    public void testUnknownFormat() {
+        assertThrows(IllegalArgumentException.class, () -> ReportWriter.create("xml", new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void testBatchReport(@TempDir Path directory) throws IOException {
+        Path input = directory.resolve("books.csv");
+        Files.write(input, Arrays.asList(
+            "bookID,title,authors,average_rating,isbn,isbn13,language_code,# num_pages,ratings_count,text_reviews_count",
+            "14428,The Inheritors,William Golding,3.53,0156443791,9780156443791,en-US,240,2681,257",
+            "2386,Moby Dick,Herman Melville-William Hootkins,3.49,9626343583,9789626343586,eng,25,66,17"
+        ), StandardCharsets.UTF_8);
+        Path specs = directory.resolve("reports.txt");
+        Files.write(specs, Arrays.asList("# nightly", "books", "", "author;author=William Golding;name=golding"), StandardCharsets.UTF_8);
+        Path output = directory.resolve("out.csv");
+
+        BatchReport.run(new String[] {
+            "--input", input.toString(), "--reports", specs.toString(), "--format", "csv", "--output", output.toString()
+        }, new ByteArrayOutputStream());
+
+        assertEquals(Arrays.asList(
+            "report,books",
+            "books,2",
+            "report,id,title,authors,average_rating,ratings_count",
+            "golding,14428,The Inheritors,William Golding,3.53,2681"
+        ), Files.readAllLines(output, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testBatchReportToStdout() throws IOException {
+        ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+
+        BatchReport.run(new String[] { "--report", "english-books", "--threads", "2" }, stdout);
+
+        String json = new String(stdout.toByteArray(), StandardCharsets.UTF_8);
+        assertTrue(json.startsWith("{\"report\":\"english-books\",\"rows\":[{\"english_books\":"));
+    }
+
+    @Test
+    public void testBatchReportBadArguments() {
+        assertThrows(IllegalArgumentException.class, () -> BatchReport.run(new String[] { "--input" }, new ByteArrayOutputStream()));
+        assertThrows(IllegalArgumentException.class, () -> BatchReport.run(new String[] { "--bogus", "1" }, new ByteArrayOutputStream()));
+        assertThrows(IllegalArgumentException.class, () -> BatchReport.run(new String[] { "--format", "csv" }, new ByteArrayOutputStream()));
+    }
+
+    @Test
+    public void testBatchReportUnknownFormatLeavesOutputAlone(@TempDir Path directory) throws IOException {
+        Path output = directory.resolve("out.json");
+        Files.write(output, Arrays.asList("yesterday's results"), StandardCharsets.UTF_8);
+
+        assertThrows(IllegalArgumentException.class, () -> BatchReport.run(new String[] {
+            "--input", directory.resolve("missing.csv").toString(), "--report", "books",
+            "--format", "xml", "--output", output.toString()
+        }, new ByteArrayOutputStream()));
+
+        // rejected before the missing input was read or the output truncated
+        assertEquals(Arrays.asList("yesterday's results"), Files.readAllLines(output, StandardCharsets.UTF_8));
+    }
+}
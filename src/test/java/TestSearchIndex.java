@@ -0,0 +1,195 @@
+import com.patientping.Book;
+import com.patientping.BookStats;
+import com.patientping.SearchIndex;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestSearchIndex {
+    private List<Book> books() {
+        List<Book> books = new ArrayList<Book>();
+        books.add(Book.builder().title("Rendezvous With Rama").authors("Arthur C. Clarke").language("eng").ratingCount(99).build());
+        books.add(Book.builder().title("Rama II").authors("Arthur C. Clarke-Gentry Lee").language("en-US").ratingCount(40).build());
+        books.add(Book.builder().title("The Shadow of the Torturer").authors("Gene Wolfe").language("eng").ratingCount(30).build());
+        books.add(Book.builder().title("Solaris").authors("Stanislaw Lem").language("pol").ratingCount(70).build());
+        books.add(Book.builder().title("The Star Diaries").authors("Stanislaw Lem").language("eng").ratingCount(33).build());
+        return books;
+    }
+
+    @Test
+    public void testSearchByTitleToken() {
+        SearchIndex index = SearchIndex.build(books());
+
+        List<Book> results = index.search("rama", 10);
+
+        // both rama books match, the more rated one first
+        assertEquals(2, results.size());
+        assertEquals("Rendezvous With Rama", results.get(0).getTitle());
+        assertEquals("Rama II", results.get(1).getTitle());
+    }
+
+    @Test
+    public void testSearchByAuthorPrefix() {
+        SearchIndex index = SearchIndex.build(books());
+
+        List<Book> results = index.search("stan", 10);
+
+        assertEquals(2, results.size());
+        assertEquals("Solaris", results.get(0).getTitle());
+        assertEquals("The Star Diaries", results.get(1).getTitle());
+    }
+
+    @Test
+    public void testSearchRequiresEveryToken() {
+        SearchIndex index = SearchIndex.build(books());
+
+        List<Book> results = index.search("clarke lee", 10);
+
+        assertEquals(1, results.size());
+        assertEquals("Rama II", results.get(0).getTitle());
+    }
+
+    @Test
+    public void testSearchRanksExactMatchesFirst() {
+        List<Book> books = new ArrayList<Book>();
+        books.add(Book.builder().title("The Ramayana").authors("Valmiki").ratingCount(100).build());
+        books.add(Book.builder().title("Rama").authors("Unknown").ratingCount(1).build());
+
+        SearchIndex index = SearchIndex.build(books);
+
+        // an exact token match outranks a prefix match, regardless of rating count
+        List<Book> results = index.search("rama", 10);
+        assertEquals(2, results.size());
+        assertEquals("Rama", results.get(0).getTitle());
+        assertEquals("The Ramayana", results.get(1).getTitle());
+    }
+
+    @Test
+    public void testSearchFilteredByLanguage() {
+        SearchIndex index = SearchIndex.build(books());
+
+        List<Book> results = index.search("lem", Arrays.asList("eng", "en-US", "en-GB"), 10);
+
+        assertEquals(1, results.size());
+        assertEquals("The Star Diaries", results.get(0).getTitle());
+    }
+
+    @Test
+    public void testSearchLimit() {
+        SearchIndex index = SearchIndex.build(books());
+
+        assertEquals(1, index.search("arthur", 1).size());
+        assertEquals(0, index.search("arthur", 0).size());
+        assertEquals(0, index.search("", 10).size());
+        assertEquals(0, index.search("nothing", 10).size());
+    }
+
+    @Test
+    public void testSearchIgnoresCaseAndPunctuation() {
+        SearchIndex index = SearchIndex.build(books());
+
+        List<Book> results = index.search("ARTHUR C.", 10);
+
+        assertEquals(2, results.size());
+    }
+
+    @Test
+    public void testSearchIgnoresDefaultLocale() {
+        Locale defaultLocale = Locale.getDefault();
+        try {
+            // in turkish "I" lower cases to a dotless i
+            Locale.setDefault(new Locale("tr", "TR"));
+            SearchIndex index = SearchIndex.build(books());
+
+            List<Book> results = index.search("RAMA II", 10);
+
+            assertEquals(1, results.size());
+            assertEquals("Rama II", results.get(0).getTitle());
+        }
+        finally {
+            Locale.setDefault(defaultLocale);
+        }
+    }
+
+    @Test
+    public void testSearchManyRows() {
+        List<Book> books = new ArrayList<Book>();
+        for (int i = 0; i < 1000; ++i) {
+            String title = (i % 3 == 0 ? "red " : "blue ") + (i % 5 == 0 ? "river" : "road") + (i % 7 == 0 ? " rivers" : "");
+            books.add(Book.builder().id(i).title(title).authors("Author " + i).language("eng").ratingCount(i).build());
+        }
+        SearchIndex index = SearchIndex.build(books);
+
+        List<Book> results = index.search("red riv", 1000);
+
+        // every 15th row has red and river, every 21st red and rivers, prefix matches only count once
+        int expected = 0;
+        for (int i = 0; i < 1000; ++i) {
+            if (i % 3 == 0 && (i % 5 == 0 || i % 7 == 0)) {
+                ++expected;
+            }
+        }
+        assertEquals(expected, results.size());
+        // all prefix matches score the same, so the most rated come first
+        assertEquals(990, results.get(0).getId());
+        for (Book b : results) {
+            assertTrue(b.getTitle().startsWith("red"));
+        }
+    }
+
+    @Test
+    public void testSaveAndLoad() throws IOException {
+        List<Book> books = books();
+        SearchIndex index = SearchIndex.build(books);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.save(out);
+        SearchIndex loaded = SearchIndex.load(new ByteArrayInputStream(out.toByteArray()), books);
+
+        assertEquals(index.getTermCount(), loaded.getTermCount());
+        assertEquals(index.search("rama", 10), loaded.search("rama", 10));
+        assertEquals(index.search("stan", 10), loaded.search("stan", 10));
+    }
+
+    @Test
+    public void testLoadRejectsDifferentBooks() throws IOException {
+        SearchIndex index = SearchIndex.build(books());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        index.save(out);
+
+        assertThrows(IOException.class,
+            () -> SearchIndex.load(new ByteArrayInputStream(out.toByteArray()), new ArrayList<Book>()));
+    }
+
+    @Test
+    public void testBookStatsBuildsIndexOnLoad() throws IOException {
+        String inputData =
+                "bookID,title,authors,average_rating,isbn,isbn13,language_code,# num_pages,ratings_count,text_reviews_count\n" +
+                "14428,The Inheritors,William Golding,3.53,0156443791,9780156443791,en-US,240,2681,257\n"
+                + "2386,Moby Dick,Herman Melville-William Hootkins,3.49,9626343583,9789626343586,eng,25,66,17\n";
+
+        InputStream inputStream = new ByteArrayInputStream(inputData.getBytes(Charset.forName("UTF-8")));
+        BookStats stats = new BookStats();
+        stats.loadCsv(inputStream);
+
+        List<Book> results = stats.search("william", 10);
+
+        assertEquals(2, results.size());
+        assertEquals(14428, results.get(0).getId());
+        assertTrue(stats.search("moby d", 10).get(0).getTitle().equals("Moby Dick"));
+    }
+}
@@ -0,0 +1,123 @@
+import com.patientping.Book;
+import com.patientping.BookStats;
+import com.patientping.ShardedBookStats;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class TestShardedBookStats {
+    private List<Book> books() {
+        List<Book> books = new ArrayList<Book>();
+        books.add(Book.builder().id(1).authors("Gene Wolfe").language("eng").averageRating(4.5f).ratingCount(30).textReviewsCount(3).build());
+        books.add(Book.builder().id(2).authors("Gene Wolfe").language("eng").averageRating(3.5f).ratingCount(40).textReviewsCount(2).build());
+        books.add(Book.builder().id(3).authors("Gene Wolfe").language("fre").averageRating(4.0f).ratingCount(50).textReviewsCount(10).build());
+        books.add(Book.builder().id(4).authors("Arthur C. Clarke-Gentry Lee").language("en-US").averageRating(4.8f).ratingCount(99).textReviewsCount(9).build());
+        books.add(Book.builder().id(5).authors("Arthur C. Clarke").language("en-GB").averageRating(4.9f).ratingCount(10).textReviewsCount(1).build());
+        books.add(Book.builder().id(6).authors("Stanislaw Lem").language("pol").averageRating(4.2f).ratingCount(70).textReviewsCount(7).build());
+        return books;
+    }
+
+    @Test
+    public void testShardFor() {
+        for (int id = -100; id < 1000; ++id) {
+            int shard = ShardedBookStats.shardFor(id, 7);
+            assertTrue(shard >= 0 && shard < 7);
+            // the same id always routes to the same shard
+            assertEquals(shard, ShardedBookStats.shardFor(id, 7));
+        }
+    }
+
+    @Test
+    public void testLoadBooksPartitionsById() {
+        try (ShardedBookStats sharded = new ShardedBookStats(3)) {
+            sharded.loadBooks(books());
+
+            assertEquals(6, sharded.countBooks());
+            for (int i = 0; i < sharded.getShardCount(); ++i) {
+                for (Book b : sharded.getShard(i).getBooks()) {
+                    assertEquals(i, ShardedBookStats.shardFor(b.getId(), 3));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testQueriesMergeAcrossShards() {
+        try (ShardedBookStats sharded = new ShardedBookStats(4)) {
+            sharded.loadBooks(books());
+
+            assertEquals(4, sharded.countEnglishBooks());
+
+            Map.Entry<String, Integer> most = sharded.findMostBooksByAuthor();
+            assertEquals("Gene Wolfe", most.getKey());
+            assertEquals(3, most.getValue());
+
+            // Arthur C. Clarke averages 4.85 across two books that may live on different shards
+            Map.Entry<String, Double> highestAverage = sharded.findAuthorWithHighestAverageRating();
+            assertEquals("Arthur C. Clarke", highestAverage.getKey());
+            assertEquals(4.85, highestAverage.getValue(), .001);
+
+            // book 5 has fewer than 25 ratings so it is skipped
+            assertEquals(4, sharded.findHighestRatedBook().getId());
+
+            List<Book> top = sharded.findTopRatedBooks(3);
+            assertEquals(3, top.size());
+            assertEquals(4, top.get(0).getId());
+            assertEquals(1, top.get(1).getId());
+            assertEquals(6, top.get(2).getId());
+
+            assertEquals(2, sharded.findHighestRatioBook().getId());
+        }
+    }
+
+    @Test
+    public void testMatchesUnshardedStats() throws IOException {
+        BookStats single = new BookStats();
+        single.load("/books.csv");
+
+        try (ShardedBookStats sharded = new ShardedBookStats(5)) {
+            sharded.loadCsv(BookStats.class.getResourceAsStream("/books.csv"));
+
+            assertEquals(single.getBooks().size(), sharded.countBooks());
+            assertEquals(single.filterToEnglishBooks().size(), sharded.countEnglishBooks());
+            assertEquals(single.findMostBooksByAuthor(single.indexByAuthor()).getValue(),
+                sharded.findMostBooksByAuthor().getValue());
+            assertEquals(single.findAuthorWithHighestAverageRating(single.indexByAuthor()).getValue(),
+                sharded.findAuthorWithHighestAverageRating().getValue(), .0001);
+
+            // separately loaded books are different instances, so compare ids
+            List<Book> expectedTop = single.findTopRatedBooks(10);
+            List<Book> top = sharded.findTopRatedBooks(10);
+            assertEquals(expectedTop.size(), top.size());
+            for (int i = 0; i < top.size(); ++i) {
+                assertEquals(expectedTop.get(i).getId(), top.get(i).getId());
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyShards() {
+        try (ShardedBookStats sharded = new ShardedBookStats(2)) {
+            sharded.loadBooks(new ArrayList<Book>());
+
+            assertEquals(0, sharded.countBooks());
+            assertEquals(null, sharded.findMostBooksByAuthor());
+            assertEquals(null, sharded.findAuthorWithHighestAverageRating());
+            assertEquals(null, sharded.findHighestRatedBook());
+            assertEquals(null, sharded.findHighestRatioBook());
+        }
+    }
+
+    @Test
+    public void testShardCountMustBePositive() {
+        assertThrows(IllegalArgumentException.class, () -> new ShardedBookStats(0));
+    }
+}